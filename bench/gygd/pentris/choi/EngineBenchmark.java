@@ -0,0 +1,297 @@
+package gygd.pentris.choi;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmarks of the hot paths of the engine (part of Pentris)
+ * Built by bench/pom.xml (see there to run them).
+ * main() always adds the gc profiler, so every result comes with its allocation rate.
+ * 
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineBenchmark {
+    //# of rows kept empty at the top so that a piece can spawn
+    private static final int EMPTY_TOP = 6;
+
+    /**
+     * random board of a given size and fill density, with an engine playing on it
+     */
+    @State(Scope.Thread)
+    public static class Boards {
+        @Param({"25", "40"})
+        public int height;
+
+        @Param({"12", "20"})
+        public int width;
+
+        //probability of a block to be filled below the empty top
+        @Param({"0.0", "0.3", "0.6"})
+        public double density;
+
+        @Param({"Play Pentris"})
+        public String mode;
+
+        protected GameEngine engine;
+        protected Piece piece;
+        protected MoveGenerator generator;
+        private int[] types; //pieces to cycle through
+        private int next;
+
+        @Setup
+        public void setup(){
+            engine = new GameEngine(height, width, mode, 1);
+            fill(engine.getBoard(), new Random(1));
+
+            piece = new Piece(TYPE.NOTYPE);
+            generator = new MoveGenerator(height, width);
+            types = new int[64];
+            Random rand = new Random(3);
+            for(int i=0;i<types.length;i++){
+                types[i] = TYPE.firstOrdinal(mode)+rand.nextInt(TYPE.count(mode));
+            }
+        }
+
+        /**
+         * fill a board randomly without completing any row
+         */
+        protected void fill(BoardModel model, Random rand){
+            model.reset();
+            for(int row=EMPTY_TOP;row<model.HEIGHT;row++){
+                for(int col=0;col<model.WIDTH;col++){
+                    if(rand.nextDouble()<density){
+                        model.fill(row, col, TYPE.X);
+                    }
+                }
+                if(model.isFull(row)){
+                    model.setEmpty(row, rand.nextInt(model.WIDTH));
+                }
+            }
+        }
+
+        /**
+         * @return ordinal of the next type in a fixed random sequence
+         */
+        protected int nextType(){
+            next = (next+1)&(types.length-1);
+            return types[next];
+        }
+    }
+
+    /**
+     * direction to test
+     */
+    @State(Scope.Thread)
+    public static class Moves {
+        @Param({"DOWN", "UP", "RIGHT", "LEFT", "ROTATE_LEFT", "ROTATE_RIGHT", "DROP"})
+        public String direction;
+
+        protected Direction dir;
+
+        @Setup
+        public void setup(){
+            dir = Direction.valueOf(direction);
+        }
+    }
+
+    /**
+     * board with 1-5 completed rows at the bottom
+     */
+    @State(Scope.Thread)
+    public static class Clears {
+        @Param({"1", "2", "3", "4", "5"})
+        public int clears;
+
+        protected BoardModel board; //board to mutate
+        private BoardModel saved; //board before the mutation
+
+        @Setup
+        public void setup(Boards boards){
+            board = new BoardModel(boards.height, boards.width);
+            boards.fill(board, new Random(2));
+            for(int row=board.HEIGHT-clears;row<board.HEIGHT;row++){
+                for(int col=0;col<board.WIDTH;col++){
+                    board.fill(row, col, TYPE.X);
+                }
+            }
+            saved = new BoardModel(board.HEIGHT, board.WIDTH);
+            saved.copyFrom(board);
+        }
+
+        /**
+         * restore the board that removeRow mutates
+         */
+        protected void restore(){
+            board.copyFrom(saved);
+        }
+    }
+
+    /**
+     * collision test of the active piece (Pentris.isSafeToMove before the engine)
+     */
+    @Benchmark
+    public boolean isSafeToMove(Boards b, Moves m){
+        return b.engine.isSafeToMove(m.dir);
+    }
+
+    /**
+     * cost of restoring the board, to subtract from removeRows
+     */
+    @Benchmark
+    public void restoreOnly(Clears c, Blackhole bh){
+        c.restore();
+        bh.consume(c.board.rows);
+    }
+
+    /**
+     * remove 1-5 completed rows one by one
+     */
+    @Benchmark
+    public void removeRows(Clears c, Blackhole bh){
+        c.restore();
+        for(int i=0;i<c.clears;i++){
+            c.board.removeRow(c.board.HEIGHT-1);
+        }
+        bh.consume(c.board.rows);
+    }
+
+    /**
+     * remove 1-5 completed rows in one pass as the engine does after a lock
+     */
+    @Benchmark
+    public int clearFullRows(Clears c){
+        c.restore();
+        return c.board.clearFullRows(c.board.HEIGHT-5, c.board.HEIGHT-1);
+    }
+
+    /**
+     * scan every row for completed lines (as GameThread.run did after each lock)
+     */
+    @Benchmark
+    public int fullRowScan(Boards b){
+        BoardModel model = b.engine.getBoard();
+        int full = 0;
+        for(int row=model.HEIGHT-1;row>=0;row--){
+            if(model.isFull(row)){
+                full++;
+            }
+        }
+        return full;
+    }
+
+    /**
+     * SPACE: move a new piece down from the top row by row until it stops
+     */
+    @Benchmark
+    public int hardDrop(Boards b){
+        BoardModel model = b.engine.getBoard();
+        int type = b.nextType();
+        int x = model.WIDTH/2-1;
+        int y = -PieceCatalog.maxY[type][0];
+        while(model.collision(type, 0, x, y+1)==BoardModel.FREE){
+            y++;
+        }
+        return y;
+    }
+
+    /**
+     * SPACE: find the landing row of a new piece from the column masks
+     */
+    @Benchmark
+    public int dropDistance(Boards b){
+        BoardModel model = b.engine.getBoard();
+        int type = b.nextType();
+        int x = model.WIDTH/2-1;
+        int y = -PieceCatalog.maxY[type][0];
+        return y+model.dropDistance(type, 0, x, y);
+    }
+
+    /**
+     * every reachable placement of a new piece with the shortest moves to it
+     */
+    @Benchmark
+    public int generateMoves(Boards b){
+        BoardModel model = b.engine.getBoard();
+        int type = b.nextType();
+        return b.generator.generate(model, type, 0, model.WIDTH/2-1, -PieceCatalog.maxY[type][0]);
+    }
+
+    /**
+     * spawn through the original constructor (shared Random of TYPE)
+     */
+    @Benchmark
+    public Piece newPiece(Boards b){
+        return new Piece(b.mode);
+    }
+
+    /**
+     * spawn by reusing a piece as the engine does
+     */
+    @Benchmark
+    public Piece reusePiece(Boards b){
+        b.piece.setType(TYPE.of(b.nextType()));
+        return b.piece;
+    }
+
+    /**
+     * rotate a piece in data only
+     */
+    @Benchmark
+    public int rotate(Boards b){
+        b.piece.move(Direction.ROTATE_RIGHT);
+        return b.piece.rotation;
+    }
+
+    /**
+     * test a rotation of the active piece
+     */
+    @Benchmark
+    public boolean rotateTest(Boards b){
+        return b.engine.isSafeToMove(Direction.ROTATE_RIGHT);
+    }
+
+    /**
+     * main method to run the benchmarks with the gc profiler
+     * @param args regexp of benchmarks to run (optional)
+     */
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(EngineBenchmark.class.getSimpleName()+(args.length>0 ? "."+args[0] : ""))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
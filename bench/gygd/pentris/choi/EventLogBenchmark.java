@@ -0,0 +1,112 @@
+package gygd.pentris.choi;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmarks of the queries of EventLogReader against a scan of the same rows
+ * in a row format (part of Pentris)
+ * Each query keeps the locks that cleared a # of lines: few 5-line clears let most
+ * blocks be skipped, 1-line clears are in every block.
+ * Built by bench/pom.xml (see there to run them).
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventLogBenchmark {
+    @Param({"200000"})
+    public long locks;
+
+    @Param({"1", "3", "4", "5"})
+    public int lines;
+
+    private File columnar, rows;
+    private EventLogReader reader;
+    private EventLogReader.Query query;
+
+    /**
+     * log bot games once, and write their rows in the row format
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        columnar = File.createTempFile("pentris", ".pcl");
+        rows = File.createTempFile("pentris", ".rows");
+        EventLog.play(columnar, Pentris.PENTRIS, locks);
+        reader = new EventLogReader(columnar.getPath());
+        EventLog.writeRows(reader, rows);
+        query = EventLog.clears(Pentris.PENTRIS, lines);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        reader.close();
+        columnar.delete();
+        rows.delete();
+    }
+
+    /**
+     * query the columnar log (skips the blocks without such clears)
+     */
+    @Benchmark
+    public long query(final Blackhole hole){
+        return reader.run(query, new EventLogReader.Handler(){
+            public void row(long[] row){
+                hole.consume(row[EventLog.TYPE_ORDINAL]);
+            }
+        });
+    }
+
+    /**
+     * scan every row of the row format
+     */
+    @Benchmark
+    public long scanRows() throws IOException {
+        return EventLog.scanRows(rows, lines);
+    }
+
+    /**
+     * main method to run the benchmarks
+     * @param args regexp of benchmarks to run (optional)
+     */
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(EventLogBenchmark.class.getSimpleName()+(args.length>0 ? "."+args[0] : ""))
+                .build()).run();
+    }
+}
@@ -0,0 +1,104 @@
+package gygd.pentris.choi;
+
+/**
+ * totals of a batch of games (part of Pentris)
+ * Results of two disjoint batches can be merged in any order.
+ * 
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class BatchResult {
+    protected long games;
+    protected long lines, score, pieces, steps;
+    protected double scoreSquares; //to get the standard deviation of score
+    protected long maxLines, maxScore, maxPieces, maxSteps;
+
+    /**
+     * add a finished game
+     */
+    public void add(GameEngine engine){
+        games++;
+        lines += engine.getLines();
+        score += engine.getScore();
+        pieces += engine.getPieces();
+        steps += engine.getSteps();
+        scoreSquares += (double) engine.getScore()*engine.getScore();
+        maxLines = Math.max(maxLines, engine.getLines());
+        maxScore = Math.max(maxScore, engine.getScore());
+        maxPieces = Math.max(maxPieces, engine.getPieces());
+        maxSteps = Math.max(maxSteps, engine.getSteps());
+    }
+
+    /**
+     * add results of another batch
+     */
+    public void merge(BatchResult other){
+        games += other.games;
+        lines += other.lines;
+        score += other.score;
+        pieces += other.pieces;
+        steps += other.steps;
+        scoreSquares += other.scoreSquares;
+        maxLines = Math.max(maxLines, other.maxLines);
+        maxScore = Math.max(maxScore, other.maxScore);
+        maxPieces = Math.max(maxPieces, other.maxPieces);
+        maxSteps = Math.max(maxSteps, other.maxSteps);
+    }
+
+    public long getGames(){
+        return games;
+    }
+
+    public long getPieces(){
+        return pieces;
+    }
+
+    public double getMeanScore(){
+        return games==0 ? 0 : (double) score/games;
+    }
+
+    public double getMeanLines(){
+        return games==0 ? 0 : (double) lines/games;
+    }
+
+    public double getMeanPieces(){
+        return games==0 ? 0 : (double) pieces/games;
+    }
+
+    public double getMeanSteps(){
+        return games==0 ? 0 : (double) steps/games;
+    }
+
+    /**
+     * @return standard deviation of score
+     */
+    public double getScoreDeviation(){
+        if(games==0){
+            return 0;
+        }
+        double mean = getMeanScore();
+        return Math.sqrt(Math.max(0, scoreSquares/games-mean*mean));
+    }
+
+    @Override
+    public String toString(){
+        return String.format("games: %d%n"
+                + "lines: mean %.2f, max %d%n"
+                + "score: mean %.2f (sd %.2f), max %d%n"
+                + "pieces: mean %.2f, max %d%n"
+                + "length (moves): mean %.2f, max %d",
+                games, getMeanLines(), maxLines, getMeanScore(), getScoreDeviation(), maxScore,
+                getMeanPieces(), maxPieces, getMeanSteps(), maxSteps);
+    }
+}
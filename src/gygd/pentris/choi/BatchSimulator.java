@@ -0,0 +1,146 @@
+package gygd.pentris.choi;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * BatchSimulator class (part of Pentris)
+ * Plays many independent headless games on a work-stealing pool.
+ * Every game gets its own seed from a SplittableRandom that is split along
+ * the same tree of sub-batches every time, so results only depend on the
+ * seed of the batch and never on thread scheduling.
+ * 
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class BatchSimulator {
+    //# of games a task plays without splitting
+    private static final int LEAF_GAMES = 16;
+
+    private final int height, width;
+    private final String mode;
+    private final Policy policy;
+    private final long maxPieces;
+    private final ForkJoinPool pool;
+
+    /**
+     * constructor
+     * @param height height of the board
+     * @param width width of the board
+     * @param mode Pentris.TETRIS, Pentris.PENTRIS or Pentris.BOTH
+     * @param policy player of every game
+     * @param maxPieces a game stops after this many pieces (Long.MAX_VALUE for no limit)
+     * @param pool pool to run games on
+     */
+    public BatchSimulator(int height, int width, String mode, Policy policy, long maxPieces, ForkJoinPool pool){
+        this.height = height;
+        this.width = width;
+        this.mode = mode;
+        this.policy = policy;
+        this.maxPieces = maxPieces;
+        this.pool = pool;
+        TYPE.count(mode); //fail early on a wrong mode
+    }
+
+    /**
+     * play games
+     * @param games # of games
+     * @param seed seed of the whole batch
+     * @return totals of every game
+     */
+    public BatchResult run(long games, long seed){
+        return pool.invoke(new Batch(new SplittableRandom(seed), games));
+    }
+
+    /**
+     * play one game to the end
+     */
+    protected void play(GameEngine engine){
+        while(!engine.isOver() && engine.getPieces()<maxPieces){
+            long placed = engine.getPieces();
+            policy.play(engine);
+
+            //make sure every call places a piece
+            if(engine.getPieces()==placed){
+                engine.step(Direction.DROP);
+            }
+        }
+    }
+
+    /**
+     * task to play a range of games
+     */
+    private class Batch extends RecursiveTask<BatchResult> {
+        private static final long serialVersionUID = 1L;
+
+        private final SplittableRandom rand;
+        private final long games;
+
+        Batch(SplittableRandom rand, long games){
+            this.rand = rand;
+            this.games = games;
+        }
+
+        @Override
+        protected BatchResult compute(){
+            if(games<=LEAF_GAMES){
+                BatchResult result = new BatchResult();
+                GameEngine engine = null;
+                for(long i=0;i<games;i++){
+                    long seed = rand.nextLong();
+                    if(engine==null){
+                        engine = new GameEngine(height, width, mode, seed);
+                    }else{
+                        engine.reset(seed);
+                    }
+                    play(engine);
+                    result.add(engine);
+                }
+                return result;
+            }
+
+            //both halves get their own stream
+            Batch left = new Batch(rand.split(), games/2);
+            Batch right = new Batch(rand.split(), games-games/2);
+            left.fork();
+            BatchResult result = right.compute();
+            result.merge(left.join());
+            return result;
+        }
+    }
+
+    /**
+     * main method: run a batch of random games and print totals
+     * @param args # of games, mode, seed, # of threads (all optional)
+     */
+    public static void main(String[] args){
+        long games = args.length>0 ? Long.parseLong(args[0]) : 100000;
+        String mode = args.length>1 ? args[1] : Pentris.PENTRIS;
+        long seed = args.length>2 ? Long.parseLong(args[2]) : 1;
+        int threads = args.length>3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        BatchSimulator simulator = new BatchSimulator(25, 12, mode, new RandomPolicy(), Long.MAX_VALUE, pool);
+
+        long start = System.nanoTime();
+        BatchResult result = simulator.run(games, seed);
+        double seconds = (System.nanoTime()-start)/1e9;
+
+        System.out.println(result);
+        System.out.println(String.format("%.2fs on %d threads, %.0f games/s, %.0f pieces/s",
+                seconds, threads, result.getGames()/seconds, result.getPieces()/seconds));
+        pool.shutdown();
+    }
+}
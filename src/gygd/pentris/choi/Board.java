@@ -25,7 +25,7 @@ import javax.swing.border.LineBorder;
  * @author Wonjohn Choi
  *
  */
-public class Board extends JPanel {
+public class Board extends JPanel implements BoardView {
 	/**
      * UID
      */
@@ -34,19 +34,40 @@ public class Board extends JPanel {
     //array to control each block
 	protected JButton[][] blockGrid;
 
+	//headless state rendered by this board
+	protected BoardModel model;
+
+	//TYPE ordinal currently painted on each block and the next frame to paint
+	private byte[] shown, frame;
+
 	//width and height of the board
 	protected int HEIGHT, WIDTH;
 	
 	//default color of board
 	protected static final Color NULLCOLOR = new JButton().getBackground();
 	
+	//color of the ghost piece (where the moving piece will land)
+	protected static final Color GHOSTCOLOR = Color.getHSBColor(0, 0, 0.65F);
+	protected static final byte GHOST = -1;
+	
 	/**
 	 * constructor
 	 * @param height height of the board
 	 * @param width width of the board
 	 */
 	public Board(int height, int width){
-		HEIGHT = height; WIDTH = width;
+		this(new BoardModel(height, width));
+	}
+	
+	/**
+	 * constructor
+	 * @param model model to render
+	 */
+	public Board(BoardModel model){
+		this.model = model;
+		HEIGHT = model.HEIGHT; WIDTH = model.WIDTH;
+		shown = new byte[HEIGHT*WIDTH];
+		frame = new byte[HEIGHT*WIDTH];
 		
 		blockGrid = new JButton[HEIGHT][WIDTH]; //instantiate button array
 		setLayout(new GridLayout(HEIGHT, WIDTH)); //set its layout using layout manager
@@ -74,12 +95,29 @@ public class Board extends JPanel {
 	    this(height, width);
 	    setPreferredSize(new Dimension(WIDTH*size, HEIGHT*size));
 	}
+	
+	/**
+	 * another version of constructor
+	 * @param model model to render
+	 * @param size size of block
+	 */
+	public Board(BoardModel model, int size){
+	    this(model);
+	    setPreferredSize(new Dimension(WIDTH*size, HEIGHT*size));
+	}
+
+	/**
+	 * @return headless model of this board
+	 */
+	public BoardModel getModel(){
+	    return model;
+	}
 
 	/**
 	 * check if a grid is empty
 	 */
 	public boolean isEmpty(int row, int col){
-		return blockGrid[row][col].getBackground().equals(NULLCOLOR);
+		return model.isEmpty(row, col);
 	}
 	
 	/**
@@ -88,57 +126,136 @@ public class Board extends JPanel {
 	 * @param col
 	 */
 	public void setEmpty(int row, int col){
-	    blockGrid[row][col].setBackground(NULLCOLOR);
+	    model.setEmpty(row, col);
+	    render(row, col);
 	}
 	
 	/**
 	 * fill a grid
 	 */
-	public void fill(int row, int col, Color c){
-		blockGrid[row][col].setBackground(c);
+	public void fill(int row, int col, TYPE t){
+		model.fill(row, col, t);
+		render(row, col);
 	}
 	
 	/**
 	 * try a block to move with a direction
 	 */
 	public void tryMove(int row, int col, Direction dir){
-		if(dir==Direction.DOWN || dir==Direction.UP){
-			int nextRow = row+(dir==Direction.DOWN?1:-1);
-			
-			//Failed Case
-			if(!inHeightRange(nextRow)){
-				return;
-			}
-			
-			blockGrid[nextRow][col].setBackground(blockGrid[row][col].getBackground()); //set bottom's color as current's
-			blockGrid[row][col].setBackground(NULLCOLOR); //set current no background
-		}else if(dir==Direction.RIGHT || dir==Direction.LEFT){
-			int nextCol = row + (dir==Direction.RIGHT?1:-1);
-			
-			//Failed Case
-			if(!inWidthRange(nextCol)){
-				return;
-			}
-			
-			blockGrid[row][nextCol].setBackground(blockGrid[row][col].getBackground()); //set left or right color as current's
-			blockGrid[row][col].setBackground(NULLCOLOR); //set current no background
+		model.tryMove(row, col, dir);
+		
+		//repaint the block and its neighbours
+		render(row, col);
+		for(int r=row-1;r<=row+1;r++){
+		    for(int c=col-1;c<=col+1;c++){
+		        if(inHeightRange(r) && inWidthRange(c)){
+		            render(r, c);
+		        }
+		    }
 		}
 	}
 	
+	/**
+	 * paint a block with the color stored in the model
+	 */
+	protected void render(int row, int col){
+	    paint(row, col, model.getType(row, col));
+	}
+	
+	/**
+	 * paint a block with the color of a type if it is not already painted so
+	 */
+	private void paint(int row, int col, int t){
+	    if(shown[row*WIDTH+col]!=t){
+	        shown[row*WIDTH+col] = (byte) t;
+	        blockGrid[row][col].setBackground(t==0 ? NULLCOLOR : t==GHOST ? GHOSTCOLOR : PieceCatalog.colors[t]);
+	    }
+	}
+	
+	/**
+	 * paint the model with a moving piece on top of it
+	 * (only blocks that changed since the last call are painted)
+	 * @param overlay piece that is not part of the model, may be null
+	 */
+	@Override
+	public void render(Piece overlay){
+	    render(overlay, overlay==null ? 0 : overlay.y);
+	}
+	
+	/**
+	 * paint the model with a moving piece and its ghost on top of it
+	 * (only blocks that changed since the last call are painted)
+	 * @param overlay piece that is not part of the model, may be null
+	 * @param ghostY y where the piece would land
+	 */
+	@Override
+	public void render(Piece overlay, int ghostY){
+	    compose(model, overlay, ghostY, frame);
+	    show(frame);
+	}
+	
+	/**
+	 * paint the blocks of a frame that changed since the last call
+	 * @param next types of every block in row order
+	 */
+	@Override
+	public void show(byte[] next){
+	    for(int r=0;r<HEIGHT;r++){
+	        for(int c=0;c<WIDTH;c++){
+	            paint(r, c, next[r*WIDTH+c]);
+	        }
+	    }
+	}
+	
+	/**
+	 * put the types of a model, the ghost of a piece and the piece into a frame
+	 * @param model model to draw
+	 * @param overlay piece that is not part of the model, may be null
+	 * @param ghostY y where the piece would land
+	 * @param frame HEIGHT*WIDTH types in row order (GHOST for the ghost piece)
+	 */
+	static void compose(BoardModel model, Piece overlay, int ghostY, byte[] frame){
+	    model.copyTypes(frame);
+	    
+	    if(overlay!=null){
+	        if(ghostY!=overlay.y){
+	            overlay(model, overlay, ghostY, GHOST, frame);
+	        }
+	        overlay(model, overlay, overlay.y, (byte) overlay.type.ordinal(), frame);
+	    }
+	}
+	
+	/**
+	 * put the blocks of a piece at a given y into a frame
+	 */
+	private static void overlay(BoardModel model, Piece piece, int pieceY, byte t, byte[] frame){
+	    int [][] coord = piece.coord;
+	    for(int block=0;block<coord.length;block++){
+	        int y = coord[block][1]+pieceY;
+	        int x = coord[block][0]+piece.x;
+	        if(model.inHeightRange(y) && model.inWidthRange(x)){
+	            frame[y*model.WIDTH+x] = t;
+	        }
+	    }
+	}
+	
+	/**
+	 * paint rows from the top row to a given row
+	 */
+	protected void renderRows(int lastRow){
+	    for(int r=0;r<=lastRow;r++){
+	        for(int c=0;c<WIDTH;c++){
+	            render(r, c);
+	        }
+	    }
+	}
 	
 	/**
 	 * reset board
 	 */
     public void reset() {
-        
-       //for every index
-        for(int r=0;r<HEIGHT;r++){
-            for(int c=0;c<WIDTH;c++){
-                blockGrid[r][c].setBackground(NULLCOLOR); //reset color
-                //grid[r][c] = EMPTY; //reset data
-            }
-        }
-        
+        model.reset();
+        renderRows(HEIGHT-1);
     }
 
     /**
@@ -146,78 +263,58 @@ public class Board extends JPanel {
      * @param row
      */
     public void removeRow(int row) {
-        //if row is not the most top row
-        if(row!=0){
-            //move lines down
-            for(int i=row-1;i>=0;i--){
-                for(int col=0;col<WIDTH;col++){
-                    blockGrid[i+1][col].setBackground(blockGrid[i][col].getBackground());
-                }
-            }
-        }
-            
-        //make empty the top line
-        for(int col=0;col<WIDTH;col++){
-            blockGrid[0][col].setBackground(NULLCOLOR);
-        }
-        
+        model.removeRow(row);
+        renderRows(row); //rows below are not changed
     }
     
     /**
      * check range in width
      */
     public boolean inWidthRange(int x){
-        return x>=0 && x<WIDTH;
+        return model.inWidthRange(x);
     }
     
     /**
      * check range in height
      */
     public boolean inHeightRange(int y){
-        return y>=0 && y<HEIGHT;
+        return model.inHeightRange(y);
     }
 
     /**
-     * graphically add pieces without checking any danger
+     * add pieces without checking any danger
      * @param curPiece piece to be added
      */
     public void add(Piece curPiece) {
-        int [][] coord = curPiece.coord; //get coordinates of current piece's blocks
-        
-        //for each block
-        for(int block=0;block<coord.length;block++){
-            int y = coord[block][1]+curPiece.y; //get current block's y
-            int x = coord[block][0]+curPiece.x; //get current block's x
-            
-            //check index
-            if(inHeightRange(y) && inWidthRange(x)){
-                //set desired color
-                blockGrid[y][x].setBackground(curPiece.color);
-                
-            }
-        }
-        
+        model.add(curPiece);
+        renderPiece(curPiece);
     }
 
     /**
-     * graphically remove a piece without checking any danger
+     * remove a piece without checking any danger
      * @param curPiece piece to be removed
      */
     public void remove(Piece curPiece) {
-        int [][]  coord = curPiece.coord;//get coordinates of current piece's blocks
+        model.remove(curPiece);
+        renderPiece(curPiece);
+    }
+
+    /**
+     * paint the blocks covered by a piece
+     */
+    private void renderPiece(Piece curPiece) {
+        int [][] coord = curPiece.coord; //get coordinates of current piece's blocks
         
-        //for every block
+        //for each block
         for(int block=0;block<coord.length;block++){
             int y = coord[block][1]+curPiece.y; //get current block's y
             int x = coord[block][0]+curPiece.x; //get current block's x
             
             //check index
             if(inHeightRange(y) && inWidthRange(x)){
-                //take out color
-                blockGrid[y][x].setBackground(NULLCOLOR);
+                render(y, x);
             }
         }
-        
     }
 
     /**
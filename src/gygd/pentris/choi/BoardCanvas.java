@@ -0,0 +1,168 @@
+package gygd.pentris.choi;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import javax.swing.JComponent;
+import javax.swing.JFrame;
+
+/**
+ * BoardCanvas class (part of Pentris)
+ * Renderer that paints the whole board in one component, as a lighter
+ * alternative to the grid of JButtons in Board.
+ * Each type has a pre-rendered tile, and only the blocks that changed
+ * since the last frame are repainted.
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class BoardCanvas extends JComponent implements BoardView {
+    /**
+     * UID
+     */
+    private static final long serialVersionUID = -3022357264451376311L;
+
+    //color of the line around each block (same as the border of Board's buttons)
+    private static final Color LINECOLOR = Color.getHSBColor(0, 0, 0.8F);
+
+    //model to paint
+    protected BoardModel model;
+
+    //width and height of the board, size of a block in pixels
+    protected final int HEIGHT, WIDTH, SIZE;
+
+    //type painted on each block and the next frame to paint
+    private byte[] shown, frame;
+
+    //pre-rendered image of each type (the last one is the ghost)
+    private BufferedImage[] tiles;
+
+    /**
+     * constructor
+     * @param model model to paint
+     * @param size size of block
+     */
+    public BoardCanvas(BoardModel model, int size){
+        this.model = model;
+        HEIGHT = model.HEIGHT; WIDTH = model.WIDTH; SIZE = size;
+        shown = new byte[HEIGHT*WIDTH];
+        frame = new byte[HEIGHT*WIDTH];
+
+        tiles = new BufferedImage[PieceCatalog.nTypes+1];
+        for(int t=0;t<PieceCatalog.nTypes;t++){
+            tiles[t] = createTile(t==0 ? Board.NULLCOLOR : PieceCatalog.colors[t]);
+        }
+        tiles[PieceCatalog.nTypes] = createTile(Board.GHOSTCOLOR);
+
+        setOpaque(true);
+        setPreferredSize(new Dimension(WIDTH*SIZE, HEIGHT*SIZE));
+    }
+
+    /**
+     * draw one block
+     */
+    private BufferedImage createTile(Color c){
+        BufferedImage tile = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = tile.createGraphics();
+        g.setColor(c);
+        g.fillRect(0, 0, SIZE, SIZE);
+        g.setColor(LINECOLOR);
+        g.drawRect(0, 0, SIZE-1, SIZE-1);
+        g.dispose();
+        return tile;
+    }
+
+    /**
+     * @return tile of a type in a frame
+     */
+    private BufferedImage tileOf(byte t){
+        return t==Board.GHOST ? tiles[PieceCatalog.nTypes] : tiles[t];
+    }
+
+    @Override
+    public void render(Piece overlay){
+        render(overlay, overlay==null ? 0 : overlay.y);
+    }
+
+    /**
+     * compose the next frame and repaint the blocks that changed
+     */
+    @Override
+    public void render(Piece overlay, int ghostY){
+        Board.compose(model, overlay, ghostY, frame);
+        show(frame);
+    }
+
+    /**
+     * repaint the blocks of a frame that changed since the last call
+     * @param next types of every block in row order
+     */
+    @Override
+    public void show(byte[] next){
+        for(int r=0;r<HEIGHT;r++){
+            for(int c=0;c<WIDTH;c++){
+                int i = r*WIDTH+c;
+                if(shown[i]!=next[i]){
+                    shown[i] = next[i];
+                    repaint(c*SIZE, r*SIZE, SIZE, SIZE);
+                }
+            }
+        }
+    }
+
+    /**
+     * paint the blocks inside the clip
+     */
+    @Override
+    protected void paintComponent(Graphics g){
+        Rectangle clip = g.getClipBounds();
+        if(clip==null){
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+
+        int firstCol = Math.max(clip.x/SIZE, 0);
+        int lastCol = Math.min((clip.x+clip.width-1)/SIZE, WIDTH-1);
+        int firstRow = Math.max(clip.y/SIZE, 0);
+        int lastRow = Math.min((clip.y+clip.height-1)/SIZE, HEIGHT-1);
+
+        for(int r=firstRow;r<=lastRow;r++){
+            for(int c=firstCol;c<=lastCol;c++){
+                g.drawImage(tileOf(shown[r*WIDTH+c]), c*SIZE, r*SIZE, null);
+            }
+        }
+    }
+
+    /**
+     * main test method
+     * @param args
+     */
+    public static void main(String args[]){
+        JFrame test = new JFrame();
+        GameEngine engine = new GameEngine(20, 10, Pentris.BOTH, 1);
+        for(int i=0;i<12;i++){
+            engine.step(i%2==0 ? Direction.LEFT : Direction.ROTATE_RIGHT);
+            engine.step(Direction.DROP);
+        }
+        BoardCanvas canvas = new BoardCanvas(engine.getBoard(), 30);
+        canvas.render(engine.getPiece(), engine.getGhostY());
+        test.add(canvas);
+        test.pack();
+        test.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        test.setVisible(true);
+    }
+}
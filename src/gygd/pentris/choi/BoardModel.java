@@ -0,0 +1,545 @@
+package gygd.pentris.choi;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * BoardModel class (part of Pentris)
+ * Headless state of the board. Each row is a bitmask of occupied columns
+ * and the type of each block is kept in a separate byte array,
+ * so nothing here touches AWT or Swing.
+ * Rows of types are stored indirectly (slot of each row in rowSlot), so
+ * removing rows moves row references instead of copying blocks.
+ * Each column is also kept as a bitmask of occupied rows, so the landing
+ * row of a piece is found without moving it down row by row.
+ * The filled blocks have a Zobrist hash that is updated with every change,
+ * so equal stacks reached in different ways can be recognized.
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class BoardModel {
+    //maximum width and height (one bit per column or row in a long)
+    public static final int MAX_WIDTH = 64;
+    public static final int MAX_HEIGHT = 64;
+
+    //results of collision()
+    public static final int FREE = 0; //piece fits
+    public static final int OUT = 1; //piece crosses a wall or the bottom
+    public static final int BLOCKED = 2; //piece overlaps other blocks
+
+    //random key of each grid (index row*MAX_WIDTH+col)
+    private static final long[] ZOBRIST = new long[MAX_HEIGHT*MAX_WIDTH];
+
+    static {
+        long z = 0x5DEECE66DL; //SplitMix64 with a fixed seed, so hashes are the same in every run
+        for(int i=0;i<ZOBRIST.length;i++){
+            long k = (z += 0x9E3779B97F4A7C15L);
+            k = (k^(k>>>30))*0xBF58476D1CE4E5B9L;
+            k = (k^(k>>>27))*0x94D049BB133111EBL;
+            ZOBRIST[i] = k^(k>>>31);
+        }
+    }
+
+    //occupancy of each row (bit c is set if column c is filled)
+    protected long[] rows;
+
+    //occupancy of each column (bit r is set if row r is filled)
+    protected long[] cols;
+
+    //TYPE ordinal of each block (index slot*WIDTH+col), NOTYPE if empty
+    protected byte[] types;
+
+    //slot in types of each row
+    protected int[] rowSlot;
+
+    //rows removed by the last clearFullRows (bottom first) and their slots
+    protected int[] cleared, freeSlots;
+
+    //width and height of the board
+    protected final int HEIGHT, WIDTH;
+
+    //mask of a completely filled row
+    protected final long fullMask;
+
+    //Zobrist hash of the filled grids (0 if the board is empty)
+    protected long hash;
+
+    /**
+     * constructor
+     * @param height height of the board
+     * @param width width of the board
+     */
+    public BoardModel(int height, int width){
+        if(width<1 || width>MAX_WIDTH || height<1 || height>MAX_HEIGHT){
+            throw new IllegalArgumentException("Unsupported board size: "+height+"x"+width);
+        }
+        HEIGHT = height; WIDTH = width;
+        rows = new long[HEIGHT];
+        cols = new long[WIDTH];
+        types = new byte[HEIGHT*WIDTH];
+        rowSlot = new int[HEIGHT];
+        cleared = new int[HEIGHT];
+        freeSlots = new int[HEIGHT];
+        for(int row=0;row<HEIGHT;row++){
+            rowSlot[row] = row;
+        }
+        fullMask = WIDTH==MAX_WIDTH ? -1L : (1L<<WIDTH)-1;
+    }
+
+    /**
+     * check if a grid is empty
+     */
+    public boolean isEmpty(int row, int col){
+        return (rows[row] & (1L<<col)) == 0;
+    }
+
+    /**
+     * check if every grid of a row is filled
+     */
+    public boolean isFull(int row){
+        return rows[row] == fullMask;
+    }
+
+    /**
+     * @return occupancy mask of a row
+     */
+    public long getRow(int row){
+        return rows[row];
+    }
+
+    /**
+     * @return occupancy mask of a column (bit r is set if row r is filled)
+     */
+    public long getColumn(int col){
+        return cols[col];
+    }
+
+    /**
+     * @return Zobrist hash of the filled grids (types are not part of it)
+     */
+    public long getHash(){
+        return hash;
+    }
+
+    /**
+     * @return hash of the filled grids of some rows
+     */
+    private long hashRows(int top, int bottom){
+        long h = 0;
+        for(int row=top;row<=bottom;row++){
+            for(long mask=rows[row];mask!=0;mask&=mask-1){
+                h ^= ZOBRIST[row*MAX_WIDTH+Long.numberOfTrailingZeros(mask)];
+            }
+        }
+        return h;
+    }
+
+    /**
+     * @return ordinal of the TYPE filling a grid (0 if empty)
+     */
+    public int getType(int row, int col){
+        return types[rowSlot[row]*WIDTH+col];
+    }
+
+    /**
+     * @return highest filled row of a column (HEIGHT if the column is empty)
+     */
+    public int getSurface(int col){
+        return Math.min(Long.numberOfTrailingZeros(cols[col]), HEIGHT);
+    }
+
+    /**
+     * fill a grid
+     */
+    public void fill(int row, int col, TYPE t){
+        if((rows[row] & (1L<<col))==0){
+            hash ^= ZOBRIST[row*MAX_WIDTH+col];
+        }
+        rows[row] |= 1L<<col;
+        cols[col] |= 1L<<row;
+        types[rowSlot[row]*WIDTH+col] = (byte) t.ordinal();
+    }
+
+    /**
+     * set a block empty
+     */
+    public void setEmpty(int row, int col){
+        if((rows[row] & (1L<<col))!=0){
+            hash ^= ZOBRIST[row*MAX_WIDTH+col];
+        }
+        rows[row] &= ~(1L<<col);
+        cols[col] &= ~(1L<<row);
+        types[rowSlot[row]*WIDTH+col] = 0;
+    }
+
+    /**
+     * move a block to a direction by one (nothing happens at the border)
+     */
+    public void tryMove(int row, int col, Direction dir){
+        int nextRow = row, nextCol = col;
+        switch(dir){
+            case DOWN:
+                nextRow++;
+                break;
+            case UP:
+                nextRow--;
+                break;
+            case RIGHT:
+                nextCol++;
+                break;
+            case LEFT:
+                nextCol--;
+                break;
+            default:
+                return;
+        }
+
+        //Failed Case
+        if(!inHeightRange(nextRow) || !inWidthRange(nextCol)){
+            return;
+        }
+
+        int t = types[rowSlot[row]*WIDTH+col];
+        setEmpty(row, col);
+        if((t!=0)!=((rows[nextRow] & (1L<<nextCol))!=0)){
+            hash ^= ZOBRIST[nextRow*MAX_WIDTH+nextCol];
+        }
+        if(t!=0){
+            rows[nextRow] |= 1L<<nextCol;
+            cols[nextCol] |= 1L<<nextRow;
+        }else{
+            rows[nextRow] &= ~(1L<<nextCol);
+            cols[nextCol] &= ~(1L<<nextRow);
+        }
+        types[rowSlot[nextRow]*WIDTH+nextCol] = (byte) t;
+    }
+
+    /**
+     * reset board
+     */
+    public void reset(){
+        Arrays.fill(rows, 0L);
+        Arrays.fill(cols, 0L);
+        Arrays.fill(types, (byte) 0);
+        hash = 0;
+    }
+
+    /**
+     * copy the blocks of another board of the same size
+     */
+    public void copyFrom(BoardModel other){
+        System.arraycopy(other.rows, 0, rows, 0, HEIGHT);
+        System.arraycopy(other.cols, 0, cols, 0, WIDTH);
+        System.arraycopy(other.types, 0, types, 0, types.length);
+        System.arraycopy(other.rowSlot, 0, rowSlot, 0, HEIGHT);
+        hash = other.hash;
+    }
+
+    /**
+     * write the blocks compactly: the occupancy bits of every row ((WIDTH+7)/8 bytes,
+     * lowest column first), then the TYPE ordinal of every filled block in row order
+     */
+    public void write(DataOutput out) throws IOException {
+        for(int row=0;row<HEIGHT;row++){
+            for(int shift=0;shift<WIDTH;shift+=8){
+                out.writeByte((int) (rows[row]>>>shift));
+            }
+        }
+        for(int row=0;row<HEIGHT;row++){
+            for(long mask=rows[row];mask!=0;mask&=mask-1){
+                out.writeByte(types[rowSlot[row]*WIDTH+Long.numberOfTrailingZeros(mask)]);
+            }
+        }
+    }
+
+    /**
+     * replace the blocks with blocks written by write
+     */
+    public void read(DataInput in) throws IOException {
+        reset();
+        long [] mask = new long[HEIGHT];
+        for(int row=0;row<HEIGHT;row++){
+            for(int shift=0;shift<WIDTH;shift+=8){
+                mask[row] |= (long) in.readUnsignedByte()<<shift;
+            }
+        }
+        for(int row=0;row<HEIGHT;row++){
+            for(long m=mask[row];m!=0;m&=m-1){
+                fill(row, Long.numberOfTrailingZeros(m), TYPE.of(in.readUnsignedByte()));
+            }
+        }
+    }
+
+    /**
+     * copy the types of every block into an array in row order
+     * @param out array of HEIGHT*WIDTH types
+     */
+    public void copyTypes(byte[] out){
+        for(int row=0;row<HEIGHT;row++){
+            System.arraycopy(types, rowSlot[row]*WIDTH, out, row*WIDTH, WIDTH);
+        }
+    }
+
+    /**
+     * remove a row and move every row above it down by one
+     * @param row
+     */
+    public void removeRow(int row){
+        //every row down to the removed one moves
+        hash ^= hashRows(0, row);
+        int slot = rowSlot[row];
+        System.arraycopy(rows, 0, rows, 1, row);
+        System.arraycopy(rowSlot, 0, rowSlot, 1, row);
+
+        //reuse the removed row as an empty top line
+        rows[0] = 0L;
+        rowSlot[0] = slot;
+        Arrays.fill(types, slot*WIDTH, (slot+1)*WIDTH, (byte) 0);
+        removeFromColumns(row);
+        hash ^= hashRows(0, row);
+    }
+
+    /**
+     * take a row out of every column mask, moving the rows above it down
+     */
+    private void removeFromColumns(int row){
+        removeFromColumns(cols, 0, WIDTH, row);
+    }
+
+    /**
+     * take a row out of the column masks of a board stored from an offset of an array
+     * (VectorEnv keeps the masks of many boards in one array)
+     * @param cols column masks
+     * @param base index of the first column of the board
+     * @param width width of the board
+     * @param row row to remove
+     */
+    static void removeFromColumns(long[] cols, int base, int width, int row){
+        long above = (1L<<row)-1;
+        for(int col=base;col<base+width;col++){
+            long c = cols[col];
+            cols[col] = (c & ~above & ~(1L<<row)) | ((c & above)<<1);
+        }
+    }
+
+    /**
+     * remove every completed row between two rows in one pass
+     * (only rows a piece was just added to can be completed)
+     * @param top first row to check
+     * @param bottom last row to check
+     * @return # of removed rows (the rows are in cleared, bottom first)
+     */
+    public int clearFullRows(int top, int bottom){
+        top = Math.max(top, 0);
+        bottom = Math.min(bottom, HEIGHT-1);
+
+        //find the lowest completed row
+        int row = bottom;
+        while(row>=top && rows[row]!=fullMask){
+            row--;
+        }
+        if(row<top){
+            return 0;
+        }
+
+        //every row down to the lowest completed one moves
+        int lowest = row;
+        hash ^= hashRows(0, lowest);
+
+        //move every other row down over the completed ones
+        int n = 0;
+        int to = row;
+        for(;row>=0;row--){
+            if(row>=top && rows[row]==fullMask){
+                freeSlots[n] = rowSlot[row];
+                cleared[n++] = row;
+            }else{
+                rows[to] = rows[row];
+                rowSlot[to] = rowSlot[row];
+                to--;
+            }
+        }
+
+        //reuse the removed rows as empty top lines
+        for(int i=0;i<n;i++){
+            rows[i] = 0L;
+            rowSlot[i] = freeSlots[i];
+            Arrays.fill(types, freeSlots[i]*WIDTH, (freeSlots[i]+1)*WIDTH, (byte) 0);
+        }
+
+        //topmost row first, so that the rows below keep their index
+        for(int i=n-1;i>=0;i--){
+            removeFromColumns(cleared[i]);
+        }
+        hash ^= hashRows(0, lowest);
+        return n;
+    }
+
+    /**
+     * check range in width
+     */
+    public boolean inWidthRange(int x){
+        return x>=0 && x<WIDTH;
+    }
+
+    /**
+     * check range in height
+     */
+    public boolean inHeightRange(int y){
+        return y>=0 && y<HEIGHT;
+    }
+
+    /**
+     * add blocks of a piece without checking any danger
+     * @param curPiece piece to be added
+     */
+    public void add(Piece curPiece){
+        int [][] coord = curPiece.coord;
+
+        for(int block=0;block<coord.length;block++){
+            int y = coord[block][1]+curPiece.y;
+            int x = coord[block][0]+curPiece.x;
+
+            if(inHeightRange(y) && inWidthRange(x)){
+                fill(y, x, curPiece.type);
+            }
+        }
+    }
+
+    /**
+     * add blocks of a piece in a given state (blocks above the top row are skipped)
+     * @param type ordinal of the TYPE
+     * @param rotation rotation state in PieceCatalog
+     * @param x x of the piece
+     * @param y y of the piece
+     */
+    public void add(int type, int rotation, int x, int y){
+        int [][] coord = PieceCatalog.offsets[type][rotation];
+
+        for(int block=0;block<coord.length;block++){
+            int row = coord[block][1]+y;
+            int col = coord[block][0]+x;
+
+            if(inHeightRange(row) && inWidthRange(col)){
+                if((rows[row] & (1L<<col))==0){
+                    hash ^= ZOBRIST[row*MAX_WIDTH+col];
+                }
+                rows[row] |= 1L<<col;
+                cols[col] |= 1L<<row;
+                types[rowSlot[row]*WIDTH+col] = (byte) type;
+            }
+        }
+    }
+
+    /**
+     * remove blocks of a piece without checking any danger
+     * @param curPiece piece to be removed
+     */
+    public void remove(Piece curPiece){
+        int [][] coord = curPiece.coord;
+
+        for(int block=0;block<coord.length;block++){
+            int y = coord[block][1]+curPiece.y;
+            int x = coord[block][0]+curPiece.x;
+
+            if(inHeightRange(y) && inWidthRange(x)){
+                setEmpty(y, x);
+            }
+        }
+    }
+
+    /**
+     * check whether a piece in a given state fits on the board
+     * (blocks above the top row are allowed)
+     * @param type ordinal of the TYPE
+     * @param rotation rotation state in PieceCatalog
+     * @param x x of the piece
+     * @param y y of the piece
+     * @return FREE, OUT or BLOCKED
+     */
+    public int collision(int type, int rotation, int x, int y){
+        return collision(rows, 0, HEIGHT, WIDTH, type, rotation, x, y);
+    }
+
+    /**
+     * collision on the row masks of a board stored from an offset of an array
+     * @param rows row masks
+     * @param base index of the top row of the board
+     * @return FREE, OUT or BLOCKED
+     */
+    static int collision(long[] rows, int base, int height, int width, int type, int rotation, int x, int y){
+        int left = x+PieceCatalog.minX[type][rotation];
+        if(left<0 || x+PieceCatalog.maxX[type][rotation]>=width){
+            return OUT;
+        }
+
+        long [] masks = PieceCatalog.rowMasks[type][rotation];
+        int top = y+PieceCatalog.minY[type][rotation];
+
+        for(int i=0;i<masks.length;i++){
+            int row = top+i;
+            if(row>=height){
+                return OUT;
+            }
+            if(row>=0 && (rows[base+row] & (masks[i]<<left))!=0){
+                return BLOCKED;
+            }
+        }
+        return FREE;
+    }
+
+    /**
+     * find how far a piece can fall from a position in one pass over its lowest blocks
+     * (the position itself must be FREE)
+     * @param type ordinal of the TYPE
+     * @param rotation rotation state in PieceCatalog
+     * @param x x of the piece
+     * @param y y of the piece
+     * @return # of rows the piece can move down
+     */
+    public int dropDistance(int type, int rotation, int x, int y){
+        return dropDistance(cols, 0, HEIGHT, type, rotation, x, y);
+    }
+
+    /**
+     * dropDistance on the column masks of a board stored from an offset of an array
+     * @param cols column masks
+     * @param base index of the first column of the board
+     * @return # of rows the piece can move down
+     */
+    static int dropDistance(long[] cols, int base, int height, int type, int rotation, int x, int y){
+        int [][] edges = PieceCatalog.bottoms[type][rotation];
+        int distance = Integer.MAX_VALUE;
+
+        for(int i=0;i<edges.length;i++){
+            int start = y+edges[i][1]+1; //row below the block
+            long col = cols[base+x+edges[i][0]];
+
+            //first filled row at or below start
+            int first;
+            if(start<=0){
+                first = Long.numberOfTrailingZeros(col);
+            }else if(start>=MAX_HEIGHT){
+                first = MAX_HEIGHT;
+            }else{
+                first = start+Long.numberOfTrailingZeros(col>>>start);
+            }
+            distance = Math.min(distance, Math.min(first, height)-start);
+        }
+        return distance;
+    }
+}
@@ -0,0 +1,39 @@
+package gygd.pentris.choi;
+
+/**
+ * interface of a component that shows a BoardModel (part of Pentris)
+ * 
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public interface BoardView {
+    /**
+     * show the model with a moving piece on top of it
+     * @param overlay piece that is not part of the model, may be null
+     */
+    void render(Piece overlay);
+
+    /**
+     * show the model with a moving piece and its ghost on top of it
+     * @param overlay piece that is not part of the model, may be null
+     * @param ghostY y where the piece would land
+     */
+    void render(Piece overlay, int ghostY);
+
+    /**
+     * show a frame composed by Board.compose (on the EDT)
+     * @param frame types of every block in row order
+     */
+    void show(byte[] frame);
+}
@@ -0,0 +1,289 @@
+package gygd.pentris.choi;
+
+/**
+ * Bot class (part of Pentris)
+ * Player that tries every reachable final placement of the active piece and
+ * of the upcoming pieces, and plays the first move of the best sequence.
+ * The placements and the shortest moves to them come from MoveGenerator.
+ * The moves are the same Direction moves a human uses, so the bot can play
+ * headless as a Policy or feed them to the command queue of Pentris.
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class Bot implements Planner {
+    //score of a placement that ends the game
+    private static final double LOSS = -1e100;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private final Heuristic heuristic;
+
+    //cache of scores shared by every thread (null if there is none)
+    private final TranspositionTable table;
+
+    //# of upcoming pieces searched after the active one
+    private final int lookahead;
+
+    //buffers of each searching thread, shared by every bot (a bot may be shared by several
+    //threads, and many short-lived bots may run on the same pool threads)
+    private static final ThreadLocal<Search> searches = new ThreadLocal<Search>();
+
+    /**
+     * constructor with the default heuristic, one upcoming piece and no cache
+     */
+    public Bot(){
+        this(new WeightedHeuristic(), 1);
+    }
+
+    /**
+     * constructor without a cache
+     * @param heuristic score of the boards
+     * @param lookahead # of upcoming pieces to search (at most GameEngine.PREVIEW)
+     */
+    public Bot(Heuristic heuristic, int lookahead){
+        this(heuristic, lookahead, null);
+    }
+
+    /**
+     * constructor
+     * @param heuristic score of the boards
+     * @param lookahead # of upcoming pieces to search (at most GameEngine.PREVIEW)
+     * @param table cache of scores, or null
+     */
+    public Bot(Heuristic heuristic, int lookahead, TranspositionTable table){
+        if(lookahead<0 || lookahead>GameEngine.PREVIEW){
+            throw new IllegalArgumentException("Unsupported lookahead: "+lookahead);
+        }
+        this.heuristic = heuristic;
+        this.lookahead = lookahead;
+        this.table = table;
+    }
+
+    /**
+     * find the moves to the best placement of the active piece
+     */
+    @Override
+    public int plan(GameEngine engine, int[] moves){
+        Piece piece = engine.getPiece();
+        if(piece==null){
+            return 0;
+        }
+        return search(engine).plan(this, engine, piece, moves);
+    }
+
+    /**
+     * play the best placement of the active piece
+     */
+    @Override
+    public void play(GameEngine engine){
+        Search s = search(engine);
+        Piece piece = engine.getPiece();
+        if(piece==null){
+            return;
+        }
+        int n = s.plan(this, engine, piece, s.moves);
+        for(int i=0;i<n;i++){
+            engine.step(DIRECTIONS[s.moves[i]]);
+        }
+    }
+
+    /**
+     * @return # of positions evaluated by the bots of the calling thread
+     */
+    public long getPositions(){
+        Search s = searches.get();
+        return s==null ? 0 : s.positions;
+    }
+
+    /**
+     * @return buffers of the calling thread for the size of the board and the lookahead
+     */
+    private Search search(GameEngine engine){
+        BoardModel board = engine.getBoard();
+        Search s = searches.get();
+        if(s==null || s.HEIGHT!=board.HEIGHT || s.WIDTH!=board.WIDTH || s.boards.length<=lookahead){
+            s = new Search(board.HEIGHT, board.WIDTH, lookahead+1, s==null ? 0 : s.positions);
+            searches.set(s);
+        }
+        return s;
+    }
+
+    /**
+     * preallocated state of one search (it does not keep the bot it searches for)
+     */
+    private static class Search {
+        private final int HEIGHT, WIDTH;
+
+        //one board and one move generator per searched piece
+        private final BoardModel[] boards;
+        private final MoveGenerator[] generators;
+
+        private final int[] moves;
+        private long positions;
+
+        //bot of the current search
+        private Heuristic heuristic;
+        private TranspositionTable table;
+        private int lookahead;
+
+        Search(int height, int width, int depth, long positions){
+            HEIGHT = height; WIDTH = width;
+            this.positions = positions;
+
+            boards = new BoardModel[depth];
+            generators = new MoveGenerator[depth];
+            for(int d=0;d<depth;d++){
+                boards[d] = new BoardModel(HEIGHT, WIDTH);
+                generators[d] = new MoveGenerator(HEIGHT, WIDTH);
+            }
+            moves = new int[generators[0].getMaxMoves()];
+        }
+
+        /**
+         * find the best placement of the active piece and write its moves
+         */
+        int plan(Bot bot, GameEngine engine, Piece piece, int[] out){
+            heuristic = bot.heuristic;
+            table = bot.table;
+            lookahead = bot.lookahead;
+            try{
+                return plan(engine, piece, out);
+            }finally{
+                heuristic = null;
+                table = null;
+            }
+        }
+
+        private int plan(GameEngine engine, Piece piece, int[] out){
+            BoardModel board = engine.getBoard();
+            int type = piece.type.ordinal();
+            if(table!=null){
+                table.newSearch();
+            }
+            int n = generators[0].generate(board, type, piece.rotation, piece.x, piece.y);
+            if(n==0){
+                return 0;
+            }
+
+            int best = 0;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for(int i=0;i<n;i++){
+                double score = score(engine, board, 0, type, i, 0);
+                if(score>bestScore){
+                    bestScore = score;
+                    best = i;
+                }
+            }
+
+            //cut moves that do not fit, the piece drops from where they stop
+            int length = generators[0].getMoves(best, moves);
+            if(length>out.length){
+                length = out.length;
+                moves[length-1] = Direction.DROP.ordinal();
+            }
+            System.arraycopy(moves, 0, out, 0, length);
+            return length;
+        }
+
+        /**
+         * score of a placement: the board it leaves, or the best placement of the next piece
+         */
+        private double score(GameEngine engine, BoardModel from, int depth, int type, int i, int lines){
+            MoveGenerator generator = generators[depth];
+            int r = generator.getRotation(i), px = generator.getX(i), py = generator.getY(i);
+            positions++;
+
+            //stopped while part of it is outside of the screen
+            if(py+PieceCatalog.minY[type][r]<=0){
+                return LOSS;
+            }
+
+            BoardModel board = boards[depth];
+            board.copyFrom(from);
+            board.add(type, r, px, py);
+            lines += board.clearFullRows(py+PieceCatalog.minY[type][r], py+PieceCatalog.maxY[type][r]);
+
+            if(table==null){
+                return value(engine, board, depth, lines);
+            }
+
+            //the score only depends on the board, the lines and the pieces still to place
+            long key = TranspositionTable.key(board.getHash()^lines*0x9E3779B97F4A7C15L, 0);
+            for(int d=depth;d<lookahead;d++){
+                key = TranspositionTable.key(key, engine.getNextType(d));
+            }
+            long data = table.probe(key);
+            if(data!=TranspositionTable.MISS){
+                return TranspositionTable.score(data);
+            }
+
+            //rounded as in the table, so a hit and a miss give the same score
+            double score = (float) value(engine, board, depth, lines);
+            table.store(key, score, lookahead-depth, TranspositionTable.NONE);
+            return score;
+        }
+
+        /**
+         * score of a board after a placement at a depth
+         */
+        private double value(GameEngine engine, BoardModel board, int depth, int lines){
+            if(depth==lookahead){
+                return heuristic.evaluate(board, lines);
+            }
+
+            //next piece starts where the engine spawns it
+            int next = engine.getNextType(depth);
+            int sx = WIDTH/2-1, sy = -PieceCatalog.maxY[next][0];
+            if(board.collision(next, 0, sx, sy)!=BoardModel.FREE){
+                return LOSS;
+            }
+
+            int n = generators[depth+1].generate(board, next, 0, sx, sy);
+            double best = LOSS;
+            for(int j=0;j<n;j++){
+                best = Math.max(best, score(engine, board, depth+1, next, j, lines));
+            }
+            return best;
+        }
+    }
+
+    /**
+     * main test method: play headless games and print the speed of the search
+     * @param args mode, # of games, lookahead (optional)
+     */
+    public static void main(String[] args){
+        String mode = args.length>0 ? args[0] : Pentris.PENTRIS;
+        int games = args.length>1 ? Integer.parseInt(args[1]) : 10;
+        int lookahead = args.length>2 ? Integer.parseInt(args[2]) : 1;
+        TranspositionTable table = new TranspositionTable(1<<16);
+        Bot bot = new Bot(new WeightedHeuristic(), lookahead, table);
+
+        long pieces = 0, lines = 0;
+        long start = System.nanoTime();
+        for(int g=0;g<games;g++){
+            GameEngine engine = new GameEngine(25, 12, mode, g);
+            while(!engine.isOver() && engine.getPieces()<100000){
+                bot.play(engine);
+            }
+            pieces += engine.getPieces();
+            lines += engine.getLines();
+        }
+        double seconds = (System.nanoTime()-start)/1e9;
+        System.out.println(String.format("%d games, %.1f pieces/game, %.1f lines/game",
+                games, (double) pieces/games, (double) lines/games));
+        System.out.println(String.format("%.0f positions/s, %.3f ms/piece, %.1f%% cache hits",
+                bot.getPositions()/seconds, seconds*1000/pieces, table.getHitRate()*100));
+    }
+}
@@ -0,0 +1,188 @@
+package gygd.pentris.choi;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * CommandQueue class (part of Pentris)
+ * Bounded lock-free queue of timestamped commands with many producers
+ * (the EDT, a bot) and one consumer (the game thread).
+ * Commands are kept in preallocated arrays, so nothing is allocated per command.
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class CommandQueue {
+    //commands other than moves (moves are Direction ordinals)
+    public static final int RESTART = 64;
+    public static final int PAUSE = 65;
+    public static final int BOT = 66; //turn the bot on or off
+
+    //stamp of a command that is not an input (a move of the bot), not counted in the latencies
+    public static final long NO_STAMP = Long.MIN_VALUE;
+
+    /**
+     * consumer of commands
+     */
+    public interface Handler {
+        /**
+         * apply a command
+         * @param command Direction ordinal, RESTART, PAUSE or BOT
+         * @param stamp System.nanoTime when the command was offered, or NO_STAMP
+         */
+        void apply(int command, long stamp);
+    }
+
+    private final int mask;
+    private final int[] commands;
+    private final long[] stamps;
+
+    //sequence of each slot: position+1 when it holds a command, position+capacity when it is free again
+    private final AtomicLongArray sequence;
+    private final AtomicLong tail = new AtomicLong();
+    private long head; //only used by the consumer
+
+    //input-to-apply latency (only written by the consumer)
+    private volatile long applied, lastLatency, maxLatency;
+    private long totalLatency, stamped;
+    private final AtomicLong dropped = new AtomicLong();
+
+    //histogram of the latencies (null if there is none)
+    private LatencyHistogram latencies;
+
+    /**
+     * constructor
+     * @param capacity # of commands that can wait (rounded up to a power of 2)
+     */
+    public CommandQueue(int capacity){
+        int size = Integer.highestOneBit(Math.max(capacity-1, 1))<<1;
+        mask = size-1;
+        commands = new int[size];
+        stamps = new long[size];
+        sequence = new AtomicLongArray(size);
+        for(int i=0;i<size;i++){
+            sequence.set(i, i);
+        }
+    }
+
+    /**
+     * add a command (any thread)
+     * @param command Direction ordinal, RESTART, PAUSE or BOT
+     * @param stamp System.nanoTime of the input, or NO_STAMP
+     * @return false if the queue was full and the command was dropped
+     */
+    public boolean offer(int command, long stamp){
+        long pos;
+        int i;
+        while(true){
+            pos = tail.get();
+            i = (int) pos & mask;
+            long diff = sequence.get(i)-pos;
+            if(diff==0){
+                if(tail.compareAndSet(pos, pos+1)){
+                    break;
+                }
+            }else if(diff<0){
+                dropped.incrementAndGet();
+                return false;
+            }
+        }
+
+        commands[i] = command;
+        stamps[i] = stamp;
+        sequence.lazySet(i, pos+1); //publish
+        return true;
+    }
+
+    /**
+     * apply every waiting command in order (consumer thread only)
+     * @param handler consumer of the commands
+     * @return # of applied commands
+     */
+    public int drain(Handler handler){
+        int n = 0;
+        while(true){
+            int i = (int) head & mask;
+            if(sequence.get(i)!=head+1){
+                return n;
+            }
+
+            int command = commands[i];
+            long stamp = stamps[i];
+            sequence.lazySet(i, head+mask+1); //free the slot
+            head++;
+
+            handler.apply(command, stamp);
+            n++;
+
+            applied++;
+            if(stamp==NO_STAMP){
+                continue;
+            }
+            long latency = System.nanoTime()-stamp;
+            totalLatency += latency;
+            stamped++;
+            lastLatency = latency;
+            if(latencies!=null){
+                latencies.record(latency);
+            }
+            if(latency>maxLatency){
+                maxLatency = latency;
+            }
+        }
+    }
+
+    /**
+     * set the histogram of the latencies from offer to the end of apply (before draining)
+     * @param latencies histogram, or null for none
+     */
+    public void setLatencies(LatencyHistogram latencies){
+        this.latencies = latencies;
+    }
+
+    /**
+     * @return # of applied commands
+     */
+    public long getApplied(){
+        return applied;
+    }
+
+    /**
+     * @return # of commands dropped because the queue was full
+     */
+    public long getDropped(){
+        return dropped.get();
+    }
+
+    /**
+     * @return latency of the last applied command in nanoseconds
+     */
+    public long getLastLatency(){
+        return lastLatency;
+    }
+
+    /**
+     * @return highest latency in nanoseconds
+     */
+    public long getMaxLatency(){
+        return maxLatency;
+    }
+
+    /**
+     * @return average latency of the stamped commands in nanoseconds (consumer thread only)
+     */
+    public long getAverageLatency(){
+        return stamped==0 ? 0 : totalLatency/stamped;
+    }
+}
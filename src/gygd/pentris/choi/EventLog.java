@@ -0,0 +1,366 @@
+package gygd.pentris.choi;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * EventLog class (part of Pentris)
+ * Columnar log of the locks of games (read with EventLogReader).
+ * Every lock is a row of COLUMNS values: game, tick, TYPE ordinal, x, y, rotation,
+ * lines cleared and score made. Rows are written in blocks of BLOCK rows, and a block
+ * stores each column separately: game and tick as varint deltas, the other columns
+ * as runs of (value, length). A block starts with its # of rows and the min, max and
+ * encoded length of every column, so a reader can skip a block whose ranges cannot
+ * match a query, and a column that a query does not need, without decoding them.
+ *   header: 'P' 'C', FORMAT, mode, height, width (bytes)
+ *   block:  rows (varint), min, max (zigzag varints), length (varint) of each column,
+ *           then the encoded columns in order
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class EventLog implements AutoCloseable {
+    //version of the file format
+    public static final int FORMAT = 1;
+
+    //columns
+    public static final int GAME = 0, TICK = 1, TYPE_ORDINAL = 2, X = 3, Y = 4, ROTATION = 5, LINES = 6, SCORE = 7;
+    public static final int COLUMNS = 8;
+
+    //# of rows of a full block
+    public static final int BLOCK = 4096;
+
+    //true for the columns stored as deltas (the others are stored as runs)
+    static final boolean[] DELTA = {true, true, false, false, false, false, false, false};
+
+    private final OutputStream out;
+
+    //rows of the current block [column][row]
+    private final long[][] values = new long[COLUMNS][BLOCK];
+    private int rows;
+
+    //encoded columns of the current block, and its header
+    private final byte[][] encoded = new byte[COLUMNS][BLOCK*2*10];
+    private final int[] lengths = new int[COLUMNS];
+    private final byte[] header = new byte[10+COLUMNS*30];
+
+    private long written;
+
+    /**
+     * constructor
+     * @param out stream to write to (closed by close)
+     * @param mode mode of every game of the log
+     * @param height height of the boards
+     * @param width width of the boards
+     */
+    public EventLog(OutputStream out, String mode, int height, int width) throws IOException {
+        this.out = out;
+        header[0] = 'P';
+        header[1] = 'C';
+        header[2] = FORMAT;
+        header[3] = (byte) ReplayWriter.modeIndex(mode);
+        header[4] = (byte) height;
+        header[5] = (byte) width;
+        out.write(header, 0, 6);
+        written = 6;
+    }
+
+    /**
+     * add a row
+     */
+    public void add(long game, long tick, int type, int x, int y, int rotation, int lines, int score) throws IOException {
+        values[GAME][rows] = game;
+        values[TICK][rows] = tick;
+        values[TYPE_ORDINAL][rows] = type;
+        values[X][rows] = x;
+        values[Y][rows] = y;
+        values[ROTATION][rows] = rotation;
+        values[LINES][rows] = lines;
+        values[SCORE][rows] = score;
+        rows++;
+        if(rows==BLOCK){
+            flush();
+        }
+    }
+
+    /**
+     * apply a move or a tick to an engine and add a row if it locked the piece
+     * @param engine engine of the game
+     * @param game id of the game
+     * @param code Direction ordinal or ReplayWriter.TICK
+     */
+    public void apply(GameEngine engine, long game, int code) throws IOException {
+        Piece piece = engine.getPiece();
+        if(piece==null){
+            ReplayReader.apply(engine, code);
+            return;
+        }
+        int type = piece.type.ordinal(), rotation = piece.rotation, x = piece.x;
+        //only DROP moves a piece more than one row before it locks
+        int y = code==Direction.DROP.ordinal() ? engine.getGhostY() : piece.y;
+        long pieces = engine.getPieces();
+        int lines = engine.getLines(), score = engine.getScore();
+
+        ReplayReader.apply(engine, code);
+
+        if(engine.getPieces()!=pieces){
+            add(game, engine.getTicks(), type, x, y, rotation, engine.getLines()-lines, engine.getScore()-score);
+        }
+    }
+
+    /**
+     * write the current block
+     */
+    private void flush() throws IOException {
+        if(rows==0){
+            return;
+        }
+        int h = varint(header, 0, rows);
+        for(int c=0;c<COLUMNS;c++){
+            long[] column = values[c];
+            long min = column[0], max = column[0];
+            for(int i=1;i<rows;i++){
+                min = Math.min(min, column[i]);
+                max = Math.max(max, column[i]);
+            }
+            lengths[c] = DELTA[c] ? encodeDeltas(column, rows, encoded[c]) : encodeRuns(column, rows, encoded[c]);
+            h = varint(header, h, zigzag(min));
+            h = varint(header, h, zigzag(max));
+            h = varint(header, h, lengths[c]);
+        }
+
+        out.write(header, 0, h);
+        written += h;
+        for(int c=0;c<COLUMNS;c++){
+            out.write(encoded[c], 0, lengths[c]);
+            written += lengths[c];
+        }
+        rows = 0;
+    }
+
+    /**
+     * encode a column as the first value and the differences between values
+     * @return # of bytes
+     */
+    private static int encodeDeltas(long[] column, int rows, byte[] out){
+        int n = 0;
+        long last = 0;
+        for(int i=0;i<rows;i++){
+            n = varint(out, n, zigzag(column[i]-last));
+            last = column[i];
+        }
+        return n;
+    }
+
+    /**
+     * encode a column as (value, # of repeats) pairs
+     * @return # of bytes
+     */
+    private static int encodeRuns(long[] column, int rows, byte[] out){
+        int n = 0;
+        for(int i=0;i<rows;){
+            int j = i+1;
+            while(j<rows && column[j]==column[i]){
+                j++;
+            }
+            n = varint(out, n, zigzag(column[i]));
+            n = varint(out, n, j-i);
+            i = j;
+        }
+        return n;
+    }
+
+    static long zigzag(long value){
+        return value<<1 ^ value>>63;
+    }
+
+    static long unzigzag(long value){
+        return value>>>1 ^ -(value & 1);
+    }
+
+    /**
+     * write an unsigned varint into an array
+     * @return position after it
+     */
+    static int varint(byte[] out, int n, long value){
+        while((value & ~0x7FL)!=0){
+            out[n++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        out[n++] = (byte) value;
+        return n;
+    }
+
+    /**
+     * @return # of bytes written (complete after close)
+     */
+    public long getWritten(){
+        return written;
+    }
+
+    /**
+     * write the last block and close the stream
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+
+    /**
+     * log games of a bot until a # of locks (also used by EventLogBenchmark)
+     * @param file file to write
+     * @return # of locks
+     */
+    static long play(File file, String mode, long target) throws IOException {
+        EventLog log = new EventLog(new BufferedOutputStream(new FileOutputStream(file), 1<<16), mode, 25, 12);
+        Bot bot = new Bot(new WeightedHeuristic(), 0);
+        GameEngine engine = new GameEngine(25, 12, mode, 0);
+        int[] moves = new int[1<<10];
+        long locks = 0;
+        for(long game=0;locks<target;game++){
+            engine.reset(game);
+            while(!engine.isOver() && engine.getPieces()<5000){
+                int n = bot.plan(engine, moves);
+                for(int i=0;i<n;i++){
+                    log.apply(engine, game, moves[i]);
+                }
+                log.apply(engine, game, ReplayWriter.TICK);
+            }
+            locks += engine.getPieces();
+        }
+        log.close();
+        return locks;
+    }
+
+    /**
+     * write every row of a log in a row format (8 ints per row)
+     * @return # of rows
+     */
+    static long writeRows(EventLogReader reader, File file) throws IOException {
+        final DataOutputStream rowsOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1<<16));
+        EventLogReader.Query all = new EventLogReader.Query();
+        for(int c=0;c<COLUMNS;c++){
+            all.select(c);
+        }
+        final IOException[] error = new IOException[1];
+        long total = reader.run(all, new EventLogReader.Handler(){
+            public void row(long[] row){
+                try{
+                    for(int c=0;c<COLUMNS;c++){
+                        rowsOut.writeInt((int) row[c]);
+                    }
+                }catch(IOException e){
+                    error[0] = e;
+                }
+            }
+        });
+        rowsOut.close();
+        if(error[0]!=null){
+            throw error[0];
+        }
+        return total;
+    }
+
+    /**
+     * @return query of the types of the locks that cleared a # of lines
+     */
+    static EventLogReader.Query clears(String mode, int lines){
+        return new EventLogReader.Query().mode(mode).where(LINES, lines, lines).select(TYPE_ORDINAL);
+    }
+
+    /**
+     * main method: log bot games, then compare a query over the log with a scan of
+     * the same rows in a row format (8 ints per row)
+     * Every query is run until the JIT compiled it before it is timed; EventLogBenchmark
+     * in bench/ measures the same with JMH.
+     * @param args # of locks (optional), mode (optional)
+     */
+    public static void main(String[] args) throws IOException {
+        long target = args.length>0 ? Long.parseLong(args[0]) : 1000000;
+        String mode = args.length>1 ? args[1] : Pentris.PENTRIS;
+        File columnar = File.createTempFile("pentris", ".pcl");
+        File rowFile = File.createTempFile("pentris", ".rows");
+        columnar.deleteOnExit();
+        rowFile.deleteOnExit();
+
+        play(columnar, mode, target);
+        EventLogReader reader = new EventLogReader(columnar.getPath());
+        long total = writeRows(reader, rowFile);
+        System.out.println(String.format("%d locks, columnar %d bytes (%.2f bytes/lock), rows %d bytes",
+                total, columnar.length(), (double) columnar.length()/total, rowFile.length()));
+
+        int most = mode.equals(Pentris.TETRIS) ? 4 : 5;
+        final long[] sum = new long[1];
+        EventLogReader.Handler handler = new EventLogReader.Handler(){
+            public void row(long[] row){
+                sum[0] += row[TYPE_ORDINAL];
+            }
+        };
+
+        //warm up every query shape (skipped, partly read and fully read blocks) and the scan
+        for(int repeat=0;repeat<200;repeat++){
+            for(int lines=most;lines>=1;lines--){
+                reader.run(clears(mode, lines), handler);
+                scanRows(rowFile, lines);
+            }
+        }
+
+        for(int lines=most;lines>=1;lines--){
+            EventLogReader.Query query = clears(mode, lines);
+            long matched = 0, columnNanos = Long.MAX_VALUE;
+            for(int repeat=0;repeat<200;repeat++){
+                long start = System.nanoTime();
+                matched = reader.run(query, handler);
+                columnNanos = Math.min(columnNanos, System.nanoTime()-start);
+            }
+            long blocks = reader.getBlocksRead(), skipped = reader.getBlocksSkipped();
+
+            long rowMatched = 0, rowNanos = Long.MAX_VALUE;
+            for(int repeat=0;repeat<200;repeat++){
+                long start = System.nanoTime();
+                rowMatched = scanRows(rowFile, lines);
+                rowNanos = Math.min(rowNanos, System.nanoTime()-start);
+            }
+            System.out.println(String.format("%d-line clears: %d (rows: %d), columnar %.3f ms (%d blocks read, %d skipped), rows %.3f ms",
+                    lines, matched, rowMatched, columnNanos/1e6, blocks, skipped, rowNanos/1e6));
+        }
+        reader.close();
+    }
+
+    /**
+     * count the rows of a row file with a # of lines
+     */
+    static long scanRows(File file, int lines) throws IOException {
+        MappedByteBuffer buffer;
+        try(RandomAccessFile in = new RandomAccessFile(file, "r")){
+            buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+        }
+        long matched = 0, sum = 0;
+        for(int row=0;row+4*COLUMNS<=buffer.capacity();row+=4*COLUMNS){
+            if(buffer.getInt(row+4*LINES)==lines){
+                matched++;
+                sum += buffer.getInt(row+4*TYPE_ORDINAL);
+            }
+        }
+        return sum<0 ? -1 : matched;
+    }
+}
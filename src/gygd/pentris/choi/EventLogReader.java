@@ -0,0 +1,347 @@
+package gygd.pentris.choi;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import static gygd.pentris.choi.EventLog.*;
+
+/**
+ * EventLogReader class (part of Pentris)
+ * Runs queries over a mapped EventLog file. A query keeps the rows whose values
+ * are in a range for some columns, and hands the selected columns of every kept
+ * row to a handler. Blocks whose min and max cannot match are skipped, and only
+ * the columns the query uses are decoded.
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class EventLogReader implements AutoCloseable {
+    /**
+     * consumer of the rows of a query
+     */
+    public interface Handler {
+        /**
+         * a row matched
+         * @param row values indexed by column (only the selected columns are set)
+         */
+        void row(long[] row);
+    }
+
+    /**
+     * ranges of columns that rows must be in, and columns to hand to the handler
+     */
+    public static class Query {
+        private String mode;
+        private final long[] min = new long[COLUMNS], max = new long[COLUMNS];
+        private final boolean[] filtered = new boolean[COLUMNS], selected = new boolean[COLUMNS];
+
+        /**
+         * keep only the logs of a mode
+         */
+        public Query mode(String mode){
+            this.mode = mode;
+            return this;
+        }
+
+        /**
+         * keep only the rows with a column between two values (inclusive)
+         */
+        public Query where(int column, long from, long to){
+            filtered[column] = true;
+            min[column] = from;
+            max[column] = to;
+            return this;
+        }
+
+        /**
+         * hand a column to the handler
+         */
+        public Query select(int column){
+            selected[column] = true;
+            return this;
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final String mode;
+    private final int height, width;
+
+    //decoded columns of the current block
+    private final long[][] values = new long[COLUMNS][BLOCK];
+    private final long[] row = new long[COLUMNS];
+
+    //block header: min, max and offset of every column
+    private final long[] blockMin = new long[COLUMNS], blockMax = new long[COLUMNS];
+    private final int[] offsets = new int[COLUMNS+1];
+
+    //largest block header
+    private static final int HEADER = 5+COLUMNS*30;
+
+    //view of the file for bulk copies, copied bytes, position in them
+    private final ByteBuffer view;
+    private byte[] bytes = new byte[1<<16];
+    private int at;
+
+    //rows of the current block in every range of the query
+    private final long[] selection = new long[(BLOCK+63)>>>6];
+
+    //blocks of the last query
+    private long blocksRead, blocksSkipped;
+
+    /**
+     * constructor
+     * @param path file written by EventLog
+     */
+    public EventLogReader(String path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        try{
+            if(file.length()>Integer.MAX_VALUE){
+                throw new IOException("Event log larger than 2 GiB");
+            }
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            if(buffer.capacity()<6 || buffer.get(0)!='P' || buffer.get(1)!='C'){
+                throw new IOException("Not an event log: "+path);
+            }
+            if(buffer.get(2)!=FORMAT){
+                throw new IOException("Unsupported event log format: "+buffer.get(2));
+            }
+            int m = buffer.get(3) & 0xFF;
+            if(m>=ReplayWriter.MODES.length){
+                throw new IOException("Unknown mode: "+m);
+            }
+            view = buffer.duplicate();
+            mode = ReplayWriter.MODES[m];
+            height = buffer.get(4) & 0xFF;
+            width = buffer.get(5) & 0xFF;
+        }catch(IOException e){
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * run a query
+     * @param query query
+     * @param handler consumer of the matching rows
+     * @return # of matching rows
+     */
+    public long run(Query query, Handler handler){
+        blocksRead = 0;
+        blocksSkipped = 0;
+        if(query.mode!=null && !query.mode.equals(mode)){
+            return 0;
+        }
+
+        long matched = 0;
+        int position = 6;
+        while(position<buffer.capacity()){
+            //block header
+            block(position, Math.min(HEADER, buffer.capacity()-position));
+            int rows = (int) varint();
+            int start = 0;
+            for(int c=0;c<COLUMNS;c++){
+                blockMin[c] = unzigzag(varint());
+                blockMax[c] = unzigzag(varint());
+                offsets[c] = start;
+                start += (int) varint();
+            }
+            offsets[COLUMNS] = start;
+            int base = position+at;
+            position = base+start;
+
+            //skip the block if a range cannot match
+            boolean skip = false;
+            for(int c=0;c<COLUMNS;c++){
+                if(query.filtered[c] && (blockMax[c]<query.min[c] || blockMin[c]>query.max[c])){
+                    skip = true;
+                    break;
+                }
+            }
+            if(skip){
+                blocksSkipped++;
+                continue;
+            }
+            blocksRead++;
+
+            //rows in every range (a column entirely in its range does not need decoding)
+            int words = (rows+63)>>>6;
+            Arrays.fill(selection, 0, words, -1L);
+            if((rows & 63)!=0){
+                selection[words-1] = (1L<<rows)-1;
+            }
+            for(int c=0;c<COLUMNS;c++){
+                if(query.filtered[c] && (blockMin[c]<query.min[c] || blockMax[c]>query.max[c])){
+                    filter(c, base, rows, query.min[c], query.max[c], words);
+                }
+            }
+
+            int count = 0;
+            for(int w=0;w<words;w++){
+                count += Long.bitCount(selection[w]);
+            }
+            if(count==0){
+                continue;
+            }
+            matched += count;
+
+            for(int c=0;c<COLUMNS;c++){
+                if(query.selected[c]){
+                    decode(c, base, rows);
+                }
+            }
+            for(int w=0;w<words;w++){
+                for(long bits=selection[w];bits!=0;bits&=bits-1){
+                    int i = w<<6 | Long.numberOfTrailingZeros(bits);
+                    for(int c=0;c<COLUMNS;c++){
+                        if(query.selected[c]){
+                            row[c] = values[c][i];
+                        }
+                    }
+                    handler.row(row);
+                }
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * copy bytes of the file to the start of bytes
+     */
+    private void block(int position, int length){
+        if(bytes.length<length){
+            bytes = new byte[length];
+        }
+        view.position(position);
+        view.get(bytes, 0, length);
+        at = 0;
+    }
+
+    /**
+     * clear the rows of the selection with a column out of a range
+     */
+    private void filter(int column, int base, int rows, long from, long to, int words){
+        if(DELTA[column]){
+            decode(column, base, rows);
+            long[] in = values[column];
+            for(int w=0;w<words;w++){
+                long keep = 0;
+                for(int i=w<<6, end=Math.min(i+64, rows);i<end;i++){
+                    if(in[i]>=from && in[i]<=to){
+                        keep |= 1L<<i;
+                    }
+                }
+                selection[w] &= keep;
+            }
+            return;
+        }
+
+        //whole runs at once, without expanding them
+        block(base+offsets[column], offsets[column+1]-offsets[column]);
+        for(int i=0;i<rows;){
+            long value = unzigzag(varint());
+            int end = i+(int) varint();
+            if(value<from || value>to){
+                clear(i, end);
+            }
+            i = end;
+        }
+    }
+
+    /**
+     * clear rows from the selection
+     * @param from first row
+     * @param to last row (exclusive)
+     */
+    private void clear(int from, int to){
+        while(from<to){
+            int w = from>>>6;
+            int end = Math.min(to, (w+1)<<6);
+            long mask = end-from==64 ? -1L : ((1L<<(end-from))-1)<<from;
+            selection[w] &= ~mask;
+            from = end;
+        }
+    }
+
+    /**
+     * decode a column of a block
+     */
+    private void decode(int column, int base, int rows){
+        block(base+offsets[column], offsets[column+1]-offsets[column]);
+        long[] out = values[column];
+        if(DELTA[column]){
+            long last = 0;
+            for(int i=0;i<rows;i++){
+                last += unzigzag(varint());
+                out[i] = last;
+            }
+        }else{
+            for(int i=0;i<rows;){
+                long value = unzigzag(varint());
+                int end = i+(int) varint();
+                Arrays.fill(out, i, end, value);
+                i = end;
+            }
+        }
+    }
+
+    /**
+     * read a varint of the copied bytes
+     */
+    private long varint(){
+        long value = 0;
+        for(int shift=0;;shift+=7){
+            int b = bytes[at++];
+            value |= (long) (b & 0x7F)<<shift;
+            if(b>=0){
+                return value;
+            }
+        }
+    }
+
+    public String getMode(){
+        return mode;
+    }
+
+    public int getHeight(){
+        return height;
+    }
+
+    public int getWidth(){
+        return width;
+    }
+
+    /**
+     * @return # of blocks decoded by the last query
+     */
+    public long getBlocksRead(){
+        return blocksRead;
+    }
+
+    /**
+     * @return # of blocks skipped by the last query
+     */
+    public long getBlocksSkipped(){
+        return blocksSkipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,110 @@
+package gygd.pentris.choi;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * EventRing class (part of Pentris)
+ * Bounded lock-free queue of longs with one producer and one consumer.
+ * Events are kept in a preallocated array, so nothing is allocated per event.
+ * Each side publishes its position with a lazy set and keeps a cached copy of
+ * the other side's position, so it reads the shared counter only when the
+ * ring looks full (producer) or empty (consumer).
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class EventRing {
+    private final int mask;
+    private final long[] events;
+
+    //published positions: events written by the producer, events taken by the consumer
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    //producer only: its position and the last head it read
+    private long producerTail, cachedHead;
+
+    //consumer only: its position and the last tail it read
+    private long consumerHead, cachedTail;
+
+    /**
+     * constructor
+     * @param capacity # of events that can wait (rounded up to a power of 2)
+     */
+    public EventRing(int capacity){
+        int size = Integer.highestOneBit(Math.max(capacity-1, 1))<<1;
+        mask = size-1;
+        events = new long[size];
+    }
+
+    /**
+     * add an event (producer thread only)
+     * @return false if the ring was full and the event was not added
+     */
+    public boolean offer(long event){
+        if(producerTail-cachedHead>mask){
+            cachedHead = head.get();
+            if(producerTail-cachedHead>mask){
+                return false;
+            }
+        }
+        events[(int) producerTail & mask] = event;
+        producerTail++;
+        tail.lazySet(producerTail); //publish
+        return true;
+    }
+
+    /**
+     * @return # of events the producer can add without failing (producer thread only)
+     */
+    public int remaining(){
+        cachedHead = head.get();
+        return (int) (events.length-(producerTail-cachedHead));
+    }
+
+    /**
+     * take waiting events in order (consumer thread only)
+     * @param out receives the events
+     * @return # of events taken (0 if the ring is empty)
+     */
+    public int drain(long[] out){
+        if(consumerHead==cachedTail){
+            cachedTail = tail.get();
+            if(consumerHead==cachedTail){
+                return 0;
+            }
+        }
+        int n = (int) Math.min(cachedTail-consumerHead, out.length);
+        for(int i=0;i<n;i++){
+            out[i] = events[(int) (consumerHead+i) & mask];
+        }
+        consumerHead += n;
+        head.lazySet(consumerHead); //free the slots
+        return n;
+    }
+
+    /**
+     * @return true if every added event was taken (any thread)
+     */
+    public boolean isEmpty(){
+        return head.get()==tail.get();
+    }
+
+    /**
+     * @return # of events the ring can hold
+     */
+    public int getCapacity(){
+        return events.length;
+    }
+}
@@ -0,0 +1,472 @@
+package gygd.pentris.choi;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ExpectimaxBot class (part of Pentris)
+ * Player that searches the known pieces (the active one and the preview)
+ * like Bot, and then takes the expectation over the unknown pieces,
+ * which are uniform over the types of the mode as in GameEngine.
+ * The search deepens one piece at a time until the time budget of the move
+ * runs out, and plays the best placement of the deepest finished search.
+ * Chance nodes below the known pieces are split over a ForkJoinPool,
+ * one task per type. Scores of positions below a chance node are cached
+ * in a TranspositionTable if one is given.
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class ExpectimaxBot implements Planner {
+    //score of a placement that ends the game
+    private static final double LOSS = -1e100;
+
+    //deepest search (# of pieces)
+    public static final int MAX_DEPTH = 8;
+
+    //# of nodes between two looks at the clock
+    private static final int CHECK_INTERVAL = 256;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private final Heuristic heuristic;
+
+    //# of preview pieces that are searched as known
+    private final int preview;
+
+    //time budget of a move in nanoseconds
+    private final long budget;
+
+    private final ForkJoinPool pool;
+
+    //cache of scores below chance nodes (null if there is none)
+    private final TranspositionTable table;
+
+    //buffers that are not in use (taken by a search or a task, and given back)
+    private final ConcurrentLinkedQueue<Scratch> spares = new ConcurrentLinkedQueue<Scratch>();
+
+    //statistics of the last move and of every move
+    private volatile int lastDepth;
+    private volatile long lastNodes, lastNanos;
+    private final AtomicLong moves = new AtomicLong();
+    private final LongAdder depths = new LongAdder();
+    private final LongAdder nodes = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+
+    /**
+     * constructor
+     * @param heuristic score of the boards
+     * @param preview # of preview pieces searched as known (at most GameEngine.PREVIEW)
+     * @param budget time budget of a move in milliseconds
+     * @param pool pool running the chance nodes
+     * @param table cache of scores, or null
+     */
+    public ExpectimaxBot(Heuristic heuristic, int preview, long budget, ForkJoinPool pool, TranspositionTable table){
+        if(preview<0 || preview>GameEngine.PREVIEW){
+            throw new IllegalArgumentException("Unsupported preview: "+preview);
+        }
+        this.heuristic = heuristic;
+        this.preview = preview;
+        this.budget = budget*1000000L;
+        this.pool = pool;
+        this.table = table;
+    }
+
+    /**
+     * find the moves to the best placement of the active piece
+     */
+    @Override
+    public int plan(GameEngine engine, int[] out){
+        Piece piece = engine.getPiece();
+        if(piece==null){
+            return 0;
+        }
+
+        long start = System.nanoTime();
+        Search search = new Search(engine, start+budget);
+        Scratch root = take(engine.getBoard());
+        try{
+            MoveGenerator generator = root.generator(0);
+            int n = generator.generate(engine.getBoard(), piece.type.ordinal(), piece.rotation, piece.x, piece.y);
+            if(n==0){
+                return 0;
+            }
+            if(table!=null){
+                table.newSearch();
+            }
+
+            //deepen until a search is cut by the budget (the first one always finishes)
+            int best = 0, depth = 0;
+            for(int d=1;d<=MAX_DEPTH;d++){
+                int result = search.root(root, piece.type.ordinal(), n, d);
+                if(search.aborted){
+                    break;
+                }
+                best = result;
+                depth = d;
+                if(System.nanoTime()-search.deadline>=0){
+                    break;
+                }
+            }
+
+            //cut moves that do not fit, the piece drops from where they stop
+            int length = generator.getMoves(best, root.moves);
+            if(length>out.length){
+                length = out.length;
+                root.moves[length-1] = Direction.DROP.ordinal();
+            }
+            System.arraycopy(root.moves, 0, out, 0, length);
+
+            long time = System.nanoTime()-start;
+            long count = search.nodes.sum();
+            lastDepth = depth;
+            lastNodes = count;
+            lastNanos = time;
+            moves.incrementAndGet();
+            depths.add(depth);
+            nodes.add(count);
+            nanos.add(time);
+            return length;
+        }finally{
+            spares.offer(root);
+        }
+    }
+
+    /**
+     * play the best placement of the active piece
+     */
+    @Override
+    public void play(GameEngine engine){
+        BoardModel board = engine.getBoard();
+        int[] buffer = new int[2*(board.WIDTH+board.HEIGHT)];
+        int n = plan(engine, buffer);
+        for(int i=0;i<n;i++){
+            engine.step(DIRECTIONS[buffer[i]]);
+        }
+    }
+
+    /**
+     * @return buffers for a board of the size of another board
+     */
+    private Scratch take(BoardModel board){
+        Scratch s = spares.poll();
+        if(s==null || s.HEIGHT!=board.HEIGHT || s.WIDTH!=board.WIDTH){
+            s = new Scratch(board.HEIGHT, board.WIDTH);
+        }
+        return s;
+    }
+
+    /**
+     * @return # of pieces searched for the last move
+     */
+    public int getLastDepth(){
+        return lastDepth;
+    }
+
+    /**
+     * @return # of nodes searched for the last move
+     */
+    public long getLastNodes(){
+        return lastNodes;
+    }
+
+    /**
+     * @return time spent on the last move in nanoseconds
+     */
+    public long getLastNanos(){
+        return lastNanos;
+    }
+
+    /**
+     * @return average # of pieces searched per move
+     */
+    public double getAverageDepth(){
+        long n = moves.get();
+        return n==0 ? 0 : (double) depths.sum()/n;
+    }
+
+    /**
+     * @return nodes searched per second of search over every move
+     */
+    public double getNodesPerSecond(){
+        long time = nanos.sum();
+        return time==0 ? 0 : nodes.sum()*1e9/time;
+    }
+
+    /**
+     * one board and one move generator per ply
+     */
+    private static class Scratch {
+        private final int HEIGHT, WIDTH;
+        private final BoardModel[] boards = new BoardModel[MAX_DEPTH];
+        private final MoveGenerator[] generators = new MoveGenerator[MAX_DEPTH];
+        private int[] moves;
+        private int count; //nodes since the clock was last read
+
+        Scratch(int height, int width){
+            HEIGHT = height; WIDTH = width;
+        }
+
+        BoardModel board(int ply){
+            if(boards[ply]==null){
+                boards[ply] = new BoardModel(HEIGHT, WIDTH);
+            }
+            return boards[ply];
+        }
+
+        MoveGenerator generator(int ply){
+            if(generators[ply]==null){
+                generators[ply] = new MoveGenerator(HEIGHT, WIDTH);
+                if(moves==null){
+                    moves = new int[generators[ply].getMaxMoves()];
+                }
+            }
+            return generators[ply];
+        }
+    }
+
+    /**
+     * state of the search of one move
+     */
+    private class Search {
+        private final long deadline;
+        private final BoardModel board;
+
+        //types of the known pieces (the active one first) and of the unknown ones
+        private final int[] known;
+        private final int firstType, nTypes;
+
+        //# of pieces of the current iteration
+        private int depth;
+        private volatile boolean aborted;
+        private final LongAdder nodes = new LongAdder();
+
+        Search(GameEngine engine, long deadline){
+            this.deadline = deadline;
+            board = engine.getBoard();
+            known = new int[1+preview];
+            known[0] = engine.getPiece().type.ordinal();
+            for(int i=0;i<preview;i++){
+                known[i+1] = engine.getNextType(i);
+            }
+            firstType = TYPE.firstOrdinal(engine.getMode());
+            nTypes = TYPE.count(engine.getMode());
+        }
+
+        /**
+         * search every placement of the active piece to a depth
+         * @param root buffers of the calling thread (the placements are in its first generator)
+         * @return index of the best placement (meaningless if the search was aborted)
+         */
+        int root(Scratch root, int type, int n, int depth){
+            this.depth = depth;
+            MoveGenerator generator = root.generator(0);
+
+            int best = 0;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for(int i=0;i<n && !aborted;i++){
+                double score = place(root, board, generator, i, type, 0, 0, true);
+                if(score>bestScore){
+                    bestScore = score;
+                    best = i;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * score of a placement of the piece of a ply
+         * @param s buffers of the calling thread
+         * @param from board before the placement
+         * @param generator placements of the piece
+         * @param parallel true on the thread of plan (chance nodes are split over the pool)
+         */
+        private double place(Scratch s, BoardModel from, MoveGenerator generator, int i, int type,
+                int ply, int lines, boolean parallel){
+            nodes.increment();
+            if((++s.count & (CHECK_INTERVAL-1))==0 && depth>1 && System.nanoTime()-deadline>=0){
+                aborted = true;
+            }
+
+            int r = generator.getRotation(i), px = generator.getX(i), py = generator.getY(i);
+
+            //stopped while part of it is outside of the screen
+            if(py+PieceCatalog.minY[type][r]<=0){
+                return LOSS;
+            }
+
+            BoardModel next = s.board(ply);
+            next.copyFrom(from);
+            next.add(type, r, px, py);
+            lines += next.clearFullRows(py+PieceCatalog.minY[type][r], py+PieceCatalog.maxY[type][r]);
+            return after(s, next, ply+1, lines, parallel);
+        }
+
+        /**
+         * score of a board once the pieces of the plies before were placed
+         */
+        private double after(Scratch s, BoardModel board, int ply, int lines, boolean parallel){
+            if(ply==depth){
+                return heuristic.evaluate(board, lines);
+            }
+            if(ply<known.length){
+                return decide(s, board, known[ply], ply, lines, parallel);
+            }
+
+            if(parallel){
+                Chance chance = new Chance(board, ply, lines);
+                if(ForkJoinTask.getPool()==pool){
+                    chance.invoke();
+                }else{
+                    pool.invoke(chance);
+                }
+                return chance.score;
+            }
+
+            double sum = 0;
+            for(int t=firstType;t<firstType+nTypes;t++){
+                sum += decide(s, board, t, ply, lines, false);
+            }
+            return sum/nTypes;
+        }
+
+        /**
+         * best score over the placements of a piece spawned on a board
+         */
+        private double decide(Scratch s, BoardModel board, int type, int ply, int lines, boolean parallel){
+            if(aborted){
+                return 0;
+            }
+
+            //next piece starts where the engine spawns it
+            int sx = board.WIDTH/2-1, sy = -PieceCatalog.maxY[type][0];
+            if(board.collision(type, 0, sx, sy)!=BoardModel.FREE){
+                return LOSS;
+            }
+
+            //below a chance node the score only depends on the board, the lines, the type and the depth left
+            boolean cached = table!=null && ply>=known.length;
+            long key = 0;
+            if(cached){
+                key = TranspositionTable.key(board.getHash()^lines*0x9E3779B97F4A7C15L, type);
+                long data = table.probe(key);
+                if(data!=TranspositionTable.MISS && TranspositionTable.depth(data)==depth-ply){
+                    return TranspositionTable.score(data);
+                }
+            }
+
+            MoveGenerator generator = s.generator(ply);
+            int n = generator.generate(board, type, 0, sx, sy);
+            double best = LOSS;
+            for(int i=0;i<n;i++){
+                best = Math.max(best, place(s, board, generator, i, type, ply, lines, parallel));
+            }
+
+            if(cached && !aborted){
+                //rounded as in the table, so a hit and a miss give the same score
+                best = (float) best;
+                table.store(key, best, depth-ply, TranspositionTable.NONE);
+            }
+            return best;
+        }
+
+        /**
+         * expectation over the types of a piece, one task per type
+         */
+        private class Chance extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final BoardModel board;
+            private final int ply, lines;
+            private double score;
+
+            Chance(BoardModel from, int ply, int lines){
+                board = new BoardModel(from.HEIGHT, from.WIDTH);
+                board.copyFrom(from);
+                this.ply = ply;
+                this.lines = lines;
+            }
+
+            @Override
+            protected void compute(){
+                Decide[] tasks = new Decide[nTypes];
+                for(int t=0;t<nTypes;t++){
+                    tasks[t] = new Decide(this, firstType+t);
+                }
+                invokeAll(tasks);
+
+                double sum = 0;
+                for(int t=0;t<nTypes;t++){
+                    sum += tasks[t].score;
+                }
+                score = sum/nTypes;
+            }
+        }
+
+        /**
+         * best placement of one type below a chance node
+         */
+        private class Decide extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final Chance chance;
+            private final int type;
+            private double score;
+
+            Decide(Chance chance, int type){
+                this.chance = chance;
+                this.type = type;
+            }
+
+            @Override
+            protected void compute(){
+                Scratch s = take(chance.board);
+                try{
+                    score = decide(s, chance.board, type, chance.ply, chance.lines, false);
+                }finally{
+                    spares.offer(s);
+                }
+            }
+        }
+    }
+
+    /**
+     * main test method: play headless games and print the depth and the speed of the search
+     * @param args mode, budget in milliseconds, # of pieces, preview, threads (optional)
+     */
+    public static void main(String[] args){
+        String mode = args.length>0 ? args[0] : Pentris.PENTRIS;
+        long budget = args.length>1 ? Long.parseLong(args[1]) : 40;
+        int pieces = args.length>2 ? Integer.parseInt(args[2]) : 200;
+        int preview = args.length>3 ? Integer.parseInt(args[3]) : 0;
+        int threads = args.length>4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        TranspositionTable table = new TranspositionTable(1<<20);
+        ExpectimaxBot bot = new ExpectimaxBot(new WeightedHeuristic(), preview, budget, pool, table);
+
+        GameEngine engine = new GameEngine(25, 12, mode, 1);
+        while(!engine.isOver() && engine.getPieces()<pieces){
+            bot.play(engine);
+        }
+        System.out.println(String.format("%d pieces, %d lines, over: %b", engine.getPieces(), engine.getLines(), engine.isOver()));
+        System.out.println(String.format("%d threads, budget %dms: depth %.2f, %.0f nodes/s, %.1f%% cache hits",
+                threads, budget, bot.getAverageDepth(), bot.getNodesPerSecond(), table.getHitRate()*100));
+        pool.shutdown();
+    }
+}
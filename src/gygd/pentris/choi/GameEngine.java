@@ -0,0 +1,547 @@
+package gygd.pentris.choi;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * GameEngine class (part of Pentris)
+ * Rules of the game without any Swing dependency.
+ * The engine is deterministic: the same seed and the same sequence of
+ * step() and tick() calls always produce the same game.
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class GameEngine {
+    //version of the rules (bump when the same inputs can give a different game)
+    public static final int VERSION = 1;
+
+    //# of upcoming types known in advance
+    public static final int PREVIEW = 3;
+
+    //blocks that stopped moving (the active piece is not part of it)
+    protected final BoardModel board;
+
+    //active piece (reused for every spawn)
+    protected final Piece piece;
+    protected boolean hasPiece;
+    protected boolean isOver;
+
+    //piece distribution
+    protected final String mode;
+    private final int firstType, nTypes;
+
+    //state of the random generator (SplitMix64)
+    private long seed;
+    private long randomState;
+
+    //upcoming types (ring starting at nextIndex), drawn ahead from the same generator
+    private final int[] upcoming = new int[PREVIEW];
+    private int nextIndex;
+
+    //statistics
+    protected final GameStats stats = new GameStats();
+
+    //changed whenever the board or the piece changed
+    protected long version;
+
+    //observer of the inputs (null if there is none)
+    private volatile GameListener listener;
+
+    //log of the events of the games (null if there is none, can be set by any thread)
+    private volatile Telemetry telemetry;
+
+    //histogram of the time spent removing rows (null if there is none)
+    private LatencyHistogram clearTimes;
+
+    /**
+     * constructor
+     * @param height height of the board
+     * @param width width of the board
+     * @param mode Pentris.TETRIS, Pentris.PENTRIS or Pentris.BOTH
+     * @param seed seed of the piece sequence
+     */
+    public GameEngine(int height, int width, String mode, long seed){
+        board = new BoardModel(height, width);
+        piece = new Piece(TYPE.NOTYPE);
+        this.mode = mode;
+        firstType = TYPE.firstOrdinal(mode);
+        nTypes = TYPE.count(mode);
+        reset(seed);
+    }
+
+    /**
+     * start a new game
+     * @param seed seed of the piece sequence
+     */
+    public void reset(long seed){
+        this.seed = seed;
+        randomState = seed;
+        for(int i=0;i<PREVIEW;i++){
+            upcoming[i] = nextType();
+        }
+        nextIndex = 0;
+        board.reset();
+        hasPiece = false;
+        isOver = false;
+        stats.reset();
+        version++;
+        spawn();
+
+        GameListener listener = this.listener;
+        if(listener!=null){
+            listener.gameStarted(this);
+        }
+        Telemetry telemetry = this.telemetry;
+        if(telemetry!=null){
+            telemetry.started(this);
+        }
+    }
+
+    /**
+     * apply a move of the player
+     * DOWN locks the piece if it cannot go down, DROP moves it down as far as possible and locks it
+     * @param dir direction
+     * @return true if the piece moved
+     */
+    public boolean step(Direction dir){
+        if(isOver || !hasPiece){
+            return false;
+        }
+        GameListener listener = this.listener;
+        if(listener!=null){
+            listener.moved(this, dir);
+        }
+        Telemetry telemetry = this.telemetry;
+        if(telemetry!=null){
+            telemetry.moved(dir);
+        }
+        return apply(dir);
+    }
+
+    /**
+     * apply a move (the game must have a piece)
+     * @return true if the piece moved
+     */
+    private boolean apply(Direction dir){
+        stats.steps++;
+
+        if(dir==Direction.DROP){
+            int distance = getDropDistance();
+            piece.y += distance;
+            version += distance;
+
+            //piece cannot move down anymore (this also checks the end of the game)
+            if(!tryMove(Direction.DOWN) && !isOver){
+                lock();
+            }
+            return distance>0;
+        }
+
+        if(tryMove(dir)){
+            return true;
+        }
+
+        //piece stops if it cannot move down
+        if(dir==Direction.DOWN && !isOver){
+            lock();
+        }
+        return false;
+    }
+
+    /**
+     * one step of gravity
+     */
+    public void tick(){
+        if(isOver){
+            return;
+        }
+        stats.ticks++;
+        GameListener listener = this.listener;
+        if(listener!=null){
+            listener.ticked(this);
+        }
+        if(hasPiece){
+            apply(Direction.DOWN);
+        }
+    }
+
+    /**
+     * check if it's safe to move the active piece to a direction
+     * @param dir direction
+     * @return false if the next position is occupied by other piece or outside of the board
+     */
+    public boolean isSafeToMove(Direction dir){
+        return hasPiece && collision(dir)==BoardModel.FREE;
+    }
+
+    /**
+     * test the position of the active piece after a move
+     * @return result of BoardModel.collision
+     */
+    private int collision(Direction dir){
+        int x = piece.x, y = piece.y;
+
+        // find next position
+        switch(dir){
+            case DOWN:
+                y += 1;
+                break;
+            case UP:
+                y -= 1;
+                break;
+            case LEFT:
+                x -= 1;
+                break;
+            case RIGHT:
+                x += 1;
+                break;
+            default:
+                break;
+        }
+
+        return board.collision(piece.type.ordinal(), PieceCatalog.rotate(piece.rotation, dir), x, y);
+    }
+
+    /**
+     * move the active piece if possible
+     * the game ends if the piece is stopped by other blocks while part of it is outside of the screen
+     */
+    private boolean tryMove(Direction dir){
+        int collision = collision(dir);
+        if(collision==BoardModel.FREE){
+            piece.move(dir);
+            version++;
+            return true;
+        }
+
+        if(isTopOut(collision, piece.type.ordinal(), piece.rotation, piece.y)){
+            isOver = true;
+            version++;
+            board.add(piece); //keep the last piece visible
+            hasPiece = false;
+            Telemetry telemetry = this.telemetry;
+            if(telemetry!=null){
+                telemetry.gameOver(this);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return # of rows the active piece can fall
+     */
+    private int getDropDistance(){
+        return board.dropDistance(piece.type.ordinal(), piece.rotation, piece.x, piece.y);
+    }
+
+    /**
+     * @return y where the active piece would land with DROP (for the ghost piece)
+     */
+    public int getGhostY(){
+        return hasPiece ? piece.y+getDropDistance() : piece.y;
+    }
+
+    /**
+     * rule of the end of a game (shared with VectorEnv)
+     * @param collision result of the collision of a move
+     * @return true if a piece stopped by other blocks while part of it is above the board
+     */
+    static boolean isTopOut(int collision, int type, int rotation, int y){
+        return collision==BoardModel.BLOCKED && y+PieceCatalog.minY[type][rotation]<=0;
+    }
+
+    /**
+     * @return x of a spawned piece (shared with VectorEnv)
+     */
+    static int spawnX(int width){
+        return width/2-1;
+    }
+
+    /**
+     * @return y of a spawned piece, with its lowest block on the top row (shared with VectorEnv)
+     */
+    static int spawnY(int type){
+        return -PieceCatalog.maxY[type][0];
+    }
+
+    /**
+     * put the active piece on the board, remove completed lines and spawn the next piece
+     */
+    private void lock(){
+        board.add(piece);
+        hasPiece = false;
+        stats.pieces++;
+        version++;
+
+        // only the rows of the piece can be completed
+        int type = piece.type.ordinal();
+        int level = stats.level;
+        long start = clearTimes!=null ? System.nanoTime() : 0;
+        int lines = board.clearFullRows(piece.y+PieceCatalog.minY[type][piece.rotation],
+                piece.y+PieceCatalog.maxY[type][piece.rotation]);
+        if(clearTimes!=null){
+            clearTimes.record(System.nanoTime()-start);
+        }
+        stats.addLines(lines);
+
+        Telemetry telemetry = this.telemetry;
+        if(telemetry!=null){
+            telemetry.locked(piece);
+            if(lines>0){
+                telemetry.cleared(lines);
+            }
+            if(stats.level!=level){
+                telemetry.levelUp(stats.level);
+            }
+        }
+
+        spawn();
+    }
+
+    /**
+     * place a new random piece in the middle at the top
+     */
+    private void spawn(){
+        piece.setType(TYPE.of(upcoming[nextIndex]));
+        upcoming[nextIndex] = nextType();
+        nextIndex = (nextIndex+1)%PREVIEW;
+        piece.x = spawnX(board.WIDTH);
+        piece.y = spawnY(piece.type.ordinal());
+        hasPiece = true;
+
+        //no room for the new piece
+        Telemetry telemetry = this.telemetry;
+        if(board.collision(piece.type.ordinal(), 0, piece.x, piece.y)!=BoardModel.FREE){
+            isOver = true;
+            hasPiece = false;
+            if(telemetry!=null){
+                telemetry.gameOver(this);
+            }
+        }else if(telemetry!=null){
+            telemetry.spawned(piece.type.ordinal());
+        }
+    }
+
+    /**
+     * @return ordinal of a random type of the mode
+     */
+    private int nextType(){
+        return randomType(randomState += 0x9E3779B97F4A7C15L, firstType, nTypes);
+    }
+
+    /**
+     * @param state state of the generator after its increment
+     * @return ordinal of the type it draws (shared with VectorEnv)
+     */
+    static int randomType(long state, int firstType, int nTypes){
+        long z = mix(state);
+        return firstType+(int) (((z>>>32)*nTypes)>>>32);
+    }
+
+    /**
+     * SplitMix64 finalizer
+     */
+    static long mix(long z){
+        z = (z^(z>>>30))*0xBF58476D1CE4E5B9L;
+        z = (z^(z>>>27))*0x94D049BB133111EBL;
+        return z^(z>>>31);
+    }
+
+    /**
+     * @param i 0 for the next piece, up to PREVIEW-1
+     * @return ordinal of an upcoming type
+     */
+    public int getNextType(int i){
+        return upcoming[(nextIndex+i)%PREVIEW];
+    }
+
+    /**
+     * @return board of stopped blocks
+     */
+    public BoardModel getBoard(){
+        return board;
+    }
+
+    /**
+     * write everything needed to continue the game (the mode and the size are not written)
+     */
+    public void writeState(DataOutput out) throws IOException {
+        out.writeLong(seed);
+        out.writeLong(randomState);
+        out.writeByte(nextIndex);
+        for(int i=0;i<PREVIEW;i++){
+            out.writeByte(upcoming[i]);
+        }
+        out.writeByte((hasPiece ? 1 : 0) | (isOver ? 2 : 0));
+        out.writeByte(piece.type.ordinal());
+        out.writeByte(piece.rotation);
+        out.writeByte(piece.x);
+        out.writeByte(piece.y);
+        out.writeInt(stats.score);
+        out.writeInt(stats.lines);
+        out.writeInt(stats.level);
+        out.writeInt((int) stats.delay);
+        out.writeLong(stats.pieces);
+        out.writeLong(stats.ticks);
+        out.writeLong(stats.steps);
+        board.write(out);
+    }
+
+    /**
+     * continue a game written by writeState (with the same mode and size)
+     */
+    public void readState(DataInput in) throws IOException {
+        seed = in.readLong();
+        randomState = in.readLong();
+        nextIndex = in.readUnsignedByte();
+        for(int i=0;i<PREVIEW;i++){
+            upcoming[i] = in.readUnsignedByte();
+        }
+        int flags = in.readUnsignedByte();
+        hasPiece = (flags & 1)!=0;
+        isOver = (flags & 2)!=0;
+        piece.setType(TYPE.of(in.readUnsignedByte()));
+        piece.rotation = in.readUnsignedByte();
+        piece.coord = PieceCatalog.offsets[piece.type.ordinal()][piece.rotation];
+        piece.x = in.readByte();
+        piece.y = in.readByte();
+        stats.score = in.readInt();
+        stats.lines = in.readInt();
+        stats.level = in.readInt();
+        stats.delay = in.readInt();
+        stats.pieces = in.readLong();
+        stats.ticks = in.readLong();
+        stats.steps = in.readLong();
+        board.read(in);
+        version++;
+    }
+
+    /**
+     * set the observer of the inputs (any thread; the game stops calling the old
+     * one at its next event)
+     * @param listener observer, or null for none
+     */
+    public void setListener(GameListener listener){
+        this.listener = listener;
+    }
+
+    /**
+     * set the log of the events of the games (any thread; the game stops logging
+     * at its next event)
+     * @param telemetry log, or null for none
+     */
+    public void setTelemetry(Telemetry telemetry){
+        this.telemetry = telemetry;
+    }
+
+    /**
+     * set the histogram of the time spent removing completed rows at every lock
+     * @param clearTimes histogram, or null for none
+     */
+    public void setClearTimes(LatencyHistogram clearTimes){
+        this.clearTimes = clearTimes;
+    }
+
+    /**
+     * @return active piece, null if there is none
+     */
+    public Piece getPiece(){
+        return hasPiece ? piece : null;
+    }
+
+    public boolean isOver(){
+        return isOver;
+    }
+
+    public String getMode(){
+        return mode;
+    }
+
+    public long getSeed(){
+        return seed;
+    }
+
+    /**
+     * @return counters of the game (changed by the engine)
+     */
+    public GameStats getStats(){
+        return stats;
+    }
+
+    /**
+     * @return number that changes whenever the board or the piece changed
+     */
+    public long getVersion(){
+        return version;
+    }
+
+    public int getScore(){
+        return stats.score;
+    }
+
+    public int getLines(){
+        return stats.lines;
+    }
+
+    public int getLevel(){
+        return stats.level;
+    }
+
+    public long getDelay(){
+        return stats.delay;
+    }
+
+    public long getPieces(){
+        return stats.pieces;
+    }
+
+    public long getTicks(){
+        return stats.ticks;
+    }
+
+    /**
+     * @return # of moves applied (length of the game)
+     */
+    public long getSteps(){
+        return stats.steps;
+    }
+
+    /**
+     * main test method: play random hard drops and print the speed
+     * @param args mode (optional)
+     */
+    public static void main(String[] args){
+        String mode = args.length>0 ? args[0] : Pentris.PENTRIS;
+        GameEngine engine = new GameEngine(25, 12, mode, 1);
+        java.util.Random rand = new java.util.Random(1);
+        Direction[] moves = {Direction.LEFT, Direction.RIGHT, Direction.ROTATE_RIGHT};
+
+        long placed = 0, games = 0;
+        long start = System.nanoTime();
+        while(System.nanoTime()-start<2000000000L){
+            engine.reset(games++);
+            while(!engine.isOver()){
+                for(int i=rand.nextInt(8);i>0;i--){
+                    engine.step(moves[rand.nextInt(moves.length)]);
+                }
+                engine.step(Direction.DROP);
+            }
+            placed += engine.getPieces();
+        }
+        double seconds = (System.nanoTime()-start)/1e9;
+        System.out.println(String.format("%d games, %d pieces, %.0f pieces/s", games, placed, placed/seconds));
+    }
+}
@@ -37,11 +37,13 @@ public class GameInfo extends JPanel{
     private JLabel level = new JLabel();
     private JLabel time = new JLabel();
     
-    private int nLevel;
-    private int nScore;
-    private int nLines;
-    private long nDelay;
+    //numbers on the labels
+    private GameStats shown = new GameStats();
     private long nTime;
+    private String nStatus;
+    
+    //buffer reused to build the text of labels
+    private final StringBuilder text = new StringBuilder(32);
     
     /**
      * constructor
@@ -56,13 +58,22 @@ public class GameInfo extends JPanel{
         reset();
     }
     
+    /**
+     * set the text of a label to a name followed by a number
+     */
+    private void setText(JLabel label, String name, long n, String unit){
+        text.setLength(0);
+        text.append(name).append(n).append(unit);
+        label.setText(text.toString());
+    }
+    
     /**
      * method to update score
      * @param s score
      */
     public void updateScore(int s){
-        nScore+=s;
-        score.setText("Score: "+nScore);
+        shown.score+=s;
+        setText(score, "Score: ", shown.score, "");
     }
     
     /**
@@ -70,8 +81,17 @@ public class GameInfo extends JPanel{
      * @param # of lines
      */
     public void updateLines(int l){
-        nLines+=l;
-        lines.setText("Lines: "+nLines);
+        shown.lines+=l;
+        setText(lines, "Lines: ", shown.lines, "");
+    }
+    
+    /**
+     * method to update level
+     * @param l level
+     */
+    public void updateLevel(int l){
+        shown.level = l;
+        setText(level, "Level: ", shown.level, "");
     }
     
     /**
@@ -79,40 +99,42 @@ public class GameInfo extends JPanel{
      * @param s status
      */
     public void updateStatus(String s){
+        nStatus = s;
         status.setText("Status: "+s);
     }
     
-    public long getDelay(){
-        return nDelay;
-    }
-    
-    public int getLines(){
-        return nLines;
-    }
-    
     /**
-     * method to update level
+     * method to show the numbers of a snapshot (on the EDT)
+     * labels are only changed when their values changed
+     * @param snapshot snapshot to show
      */
-    public void updateLevel(){
-        if(nDelay>50 && nLines!=0 && nLines%10==0){
-            nDelay-=10;
-            nLevel++;
-            level.setText("Level: "+nLevel);
+    public void update(Snapshot snapshot){
+        GameStats stats = snapshot.stats;
+        if(shown.score!=stats.score){
+            updateScore(stats.score-shown.score);
         }
-        
+        if(shown.lines!=stats.lines){
+            updateLines(stats.lines-shown.lines);
+        }
+        if(shown.level!=stats.level){
+            updateLevel(stats.level);
+        }
+        if(!snapshot.status.equals(nStatus)){
+            updateStatus(snapshot.status);
+        }
+        updateTime(snapshot.time);
     }
     
     /**
      * method to update time
+     * @param t time played in milliseconds
      */
-    public void updateTime(){
-        long needs = ((nTime/1000)+1)*1000-nTime;
-        nTime+=nDelay;
-        
-        if(nDelay>=needs){
-            time.setText(String.format("Time: %ds", (nTime/1000)));
+    public void updateTime(long t){
+        //change the label only when a second passed
+        if(t/1000 != nTime/1000){
+            setText(time, "Time: ", t/1000, "s");
         }
-        
+        nTime = t;
     }
 
     /**
@@ -122,12 +144,10 @@ public class GameInfo extends JPanel{
         score.setText("Score: 0");
         lines.setText("Lines: 0");
         status.setText("Status: Playing");
+        nStatus = "Playing";
         level.setText("Level: 1");
         time.setText("Time: 0s");
-        nLevel = 1;
-        nScore = 0;
-        nLines = 0;
-        nDelay = 500;
+        shown.reset();
         nTime = 0;
     }
     
@@ -0,0 +1,41 @@
+package gygd.pentris.choi;
+
+/**
+ * interface of an observer of the inputs of a GameEngine
+ * The calls happen on the thread that drives the engine, before the input
+ * is applied, so a listener must be quick and must not change the engine.
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public interface GameListener {
+    /**
+     * a game was started (after reset, with the first piece spawned)
+     * @param engine engine of the game
+     */
+    void gameStarted(GameEngine engine);
+
+    /**
+     * a move of the player is applied
+     * @param engine engine of the game
+     * @param dir direction
+     */
+    void moved(GameEngine engine, Direction dir);
+
+    /**
+     * a step of gravity is applied
+     * @param engine engine of the game
+     */
+    void ticked(GameEngine engine);
+}
@@ -0,0 +1,118 @@
+package gygd.pentris.choi;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * GameMetrics class (part of Pentris)
+ * Latency histograms of the hot paths of the game:
+ *   tick:  gravity step of the game thread (engine and publishing the snapshot)
+ *   late:  how much later than scheduled the game thread woke up for a tick
+ *   input: from a key event (its CommandQueue stamp) until the engine applied it
+ *          (moves of the bot are not inputs and are not counted)
+ *   clear: removing completed rows when a piece locks
+ *   frame: from publishing a snapshot until the EDT starts to paint it (EDT backlog)
+ *   paint: showing a snapshot on the board and the info panel (on the EDT)
+ * Each histogram is registered as an MBean (gygd.pentris.choi:type=Latency,name=...),
+ * and dump prints the percentiles of the values recorded since the last dump.
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class GameMetrics {
+    public final LatencyHistogram tick = new LatencyHistogram("tick");
+    public final LatencyHistogram late = new LatencyHistogram("late");
+    public final LatencyHistogram input = new LatencyHistogram("input");
+    public final LatencyHistogram clear = new LatencyHistogram("clear");
+    public final LatencyHistogram frame = new LatencyHistogram("frame");
+    public final LatencyHistogram paint = new LatencyHistogram("paint");
+
+    private final LatencyHistogram[] all = {tick, late, input, clear, frame, paint};
+
+    //counts at the last dump (dump thread only)
+    private final long[][] dumped = new long[all.length][LatencyHistogram.BUCKETS];
+    private final long[] counts = new long[LatencyHistogram.BUCKETS];
+
+    /**
+     * register every histogram with the platform MBean server
+     * (an error is printed and the histograms keep recording)
+     */
+    public void register(){
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for(LatencyHistogram histogram : all){
+            try{
+                ObjectName name = new ObjectName("gygd.pentris.choi:type=Latency,name="+histogram.getName());
+                if(!server.isRegistered(name)){
+                    server.registerMBean(histogram, name);
+                }
+            }catch(JMException e){
+                System.err.println("metrics: "+e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * print a line per histogram with the values recorded since the last dump
+     * (count, then p50, p99, p99.9 and max in microseconds)
+     */
+    public synchronized void dump(PrintStream out){
+        StringBuilder text = new StringBuilder();
+        for(int h=0;h<all.length;h++){
+            long[] last = dumped[h];
+            all[h].copy(counts);
+            long total = 0;
+            int highest = 0;
+            for(int i=0;i<counts.length;i++){
+                //a reset through JMX since the last dump starts the counts over
+                long n = counts[i]>=last[i] ? counts[i]-last[i] : counts[i];
+                last[i] = counts[i];
+                counts[i] = n;
+                total += n;
+                if(n>0){
+                    highest = i;
+                }
+            }
+            text.append(String.format("%-5s n=%-7d p50=%.1f p99=%.1f p99.9=%.1f max=%.1f us%n", all[h].getName(), total,
+                    LatencyHistogram.percentile(counts, total, 0.5)/1e3, LatencyHistogram.percentile(counts, total, 0.99)/1e3,
+                    LatencyHistogram.percentile(counts, total, 0.999)/1e3, total==0 ? 0 : LatencyHistogram.highest(highest)/1e3));
+        }
+        out.print(text);
+    }
+
+    /**
+     * dump to a stream at a fixed rate on a daemon thread
+     * @param out stream to print to
+     * @param seconds time between dumps
+     */
+    public void startDumps(final PrintStream out, final long seconds){
+        Thread dumper = new Thread(new Runnable(){
+            public void run(){
+                while(true){
+                    try{
+                        Thread.sleep(seconds*1000L);
+                    }catch(InterruptedException e){
+                        return;
+                    }
+                    dump(out);
+                }
+            }
+        }, "Pentris metrics");
+        dumper.setDaemon(true);
+        dumper.start();
+    }
+}
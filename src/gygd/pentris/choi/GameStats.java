@@ -0,0 +1,83 @@
+package gygd.pentris.choi;
+
+/**
+ * GameStats class (part of Pentris)
+ * Plain counters of a game. The engine updates them and GameInfo shows a copy.
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class GameStats {
+    protected int score, lines, level;
+    protected long delay; //delay of gravity in milliseconds
+    protected long pieces, ticks, steps;
+
+    /**
+     * constructor
+     */
+    public GameStats(){
+        reset();
+    }
+
+    /**
+     * reset
+     */
+    public void reset(){
+        score = 0;
+        lines = 0;
+        level = 1;
+        delay = 500;
+        pieces = 0;
+        ticks = 0;
+        steps = 0;
+    }
+
+    /**
+     * count lines removed at once
+     * @param removedLines # of lines
+     */
+    public void addLines(int removedLines){
+        for(int i=0;i<removedLines;i++){
+            lines++;
+
+            // change speed of play for every 10 lines
+            if(delay>50 && lines%10==0){
+                delay -= 10;
+                level++;
+            }
+        }
+
+        score += points(removedLines);
+    }
+
+    /**
+     * @return score of removing lines with one piece
+     */
+    static int points(int removedLines){
+        return removedLines*removedLines*10;
+    }
+
+    /**
+     * copy the counters of another object
+     */
+    public void copyFrom(GameStats other){
+        score = other.score;
+        lines = other.lines;
+        level = other.level;
+        delay = other.delay;
+        pieces = other.pieces;
+        ticks = other.ticks;
+        steps = other.steps;
+    }
+}
@@ -0,0 +1,30 @@
+package gygd.pentris.choi;
+
+/**
+ * Heuristic interface (part of Pentris)
+ * Score of a board after a placement, used by Bot to compare placements.
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public interface Heuristic {
+    /**
+     * score a board (higher is better)
+     * called from several threads at once, so it should not keep any state
+     * @param board board after the pieces were added and the lines removed
+     * @param lines # of lines removed by the placements that led to the board
+     * @return score
+     */
+    double evaluate(BoardModel board, int lines);
+}
@@ -0,0 +1,169 @@
+package gygd.pentris.choi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * KeyframeReplay class (part of Pentris)
+ * Writes a game as a seekable replay file (read with ReplayPlayer).
+ * The game is cut into chunks of a fixed # of gravity ticks. A chunk starts with a
+ * keyframe, the whole state of the engine (GameEngine.writeState, with the blocks as
+ * packed occupancy bits), followed by the inputs until the next keyframe encoded as in
+ * ReplayWriter. An index at the end of the file gives the tick, time and offset of every
+ * keyframe, so a player reaches any tick by loading one keyframe and playing at most
+ * one chunk.
+ *   header: 'P' 'K', FORMAT, engine VERSION (int), mode, height, width (bytes),
+ *           seed (long), ticks per keyframe (int)
+ *   chunk:  keyframe, events (varint of delta milliseconds<<4 | code), END
+ *   index:  # of keyframes (int), tick, time, offset of each keyframe (longs),
+ *           # of ticks and time of the game (longs)
+ *   footer: offset of the index (long), INDEX_MAGIC (int)
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class KeyframeReplay {
+    //version of the file format
+    public static final int FORMAT = 1;
+
+    //last int of the file
+    public static final int INDEX_MAGIC = 0x504B4958; //"PKIX"
+
+    //size of the footer
+    static final int FOOTER = 12;
+
+    /**
+     * write the current game of a reader as a seekable replay
+     * @param reader reader positioned at the first event of a game
+     * @param path file to write
+     * @param interval # of ticks between keyframes
+     * @return # of keyframes
+     */
+    public static int convert(ReplayReader reader, String path, int interval) throws IOException {
+        GameEngine engine = reader.newEngine();
+        int capacity = 64;
+        long[] ticks = new long[capacity], times = new long[capacity], offsets = new long[capacity];
+        int count = 0;
+        long last = 0;
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+        try{
+            out.writeByte('P');
+            out.writeByte('K');
+            out.writeByte(FORMAT);
+            out.writeInt(GameEngine.VERSION);
+            out.writeByte(ReplayWriter.modeIndex(reader.getMode()));
+            out.writeByte(reader.getHeight());
+            out.writeByte(reader.getWidth());
+            out.writeLong(reader.getSeed());
+            out.writeInt(interval);
+
+            //a keyframe at the start and after every interval-th tick
+            boolean keyframe = true;
+            for(int code=reader.next();;code=reader.next()){
+                if(keyframe){
+                    if(count>0){
+                        writeVarint(out, ReplayWriter.END);
+                    }
+                    if(count==capacity){
+                        capacity *= 2;
+                        ticks = Arrays.copyOf(ticks, capacity);
+                        times = Arrays.copyOf(times, capacity);
+                        offsets = Arrays.copyOf(offsets, capacity);
+                    }
+                    ticks[count] = engine.getTicks();
+                    times[count] = last;
+                    offsets[count] = out.size();
+                    count++;
+                    engine.writeState(out);
+                    keyframe = false;
+                }
+                if(code==ReplayWriter.END){
+                    writeVarint(out, ReplayWriter.END);
+                    break;
+                }
+
+                writeVarint(out, (reader.getTime()-last)<<4 | code);
+                last = reader.getTime();
+                ReplayReader.apply(engine, code);
+                keyframe = code==ReplayWriter.TICK && engine.getTicks()%interval==0;
+            }
+
+            long index = out.size();
+            out.writeInt(count);
+            for(int i=0;i<count;i++){
+                out.writeLong(ticks[i]);
+                out.writeLong(times[i]);
+                out.writeLong(offsets[i]);
+            }
+            out.writeLong(engine.getTicks());
+            out.writeLong(last);
+            out.writeLong(index);
+            out.writeInt(INDEX_MAGIC);
+        }finally{
+            out.close();
+        }
+        return count;
+    }
+
+    /**
+     * write an unsigned varint (7 bits per byte, lowest first)
+     */
+    static void writeVarint(DataOutput out, long value) throws IOException {
+        while((value & ~0x7FL)!=0){
+            out.writeByte((int) (value | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * read an unsigned varint
+     */
+    static long readVarint(DataInput in) throws IOException {
+        long value = 0;
+        for(int shift=0;;shift+=7){
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F)<<shift;
+            if(b<0x80){
+                return value;
+            }
+        }
+    }
+
+    /**
+     * main method: convert every game of a replay stream to a seekable replay file
+     * @param args replay stream, prefix of the files to write, ticks per keyframe (optional)
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length<2){
+            System.out.println("usage: KeyframeReplay <replay> <prefix> [ticks per keyframe]");
+            return;
+        }
+        int interval = args.length>2 ? Integer.parseInt(args[2]) : 100;
+        ReplayReader reader = new ReplayReader(new BufferedInputStream(new FileInputStream(args[0])));
+        for(int game=0;reader.nextGame();game++){
+            String path = args[1]+"-"+game+".pnk";
+            int keyframes = convert(reader, path, interval);
+            System.out.println(path+": "+keyframes+" keyframes");
+        }
+    }
+}
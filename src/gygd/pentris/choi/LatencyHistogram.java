@@ -0,0 +1,167 @@
+package gygd.pentris.choi;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram class (part of Pentris)
+ * Lock-free histogram of durations in nanoseconds with a fixed relative precision,
+ * like an HDR histogram: values below 2*SUB have their own bucket, and every power
+ * of 2 above is split into SUB buckets, so a bucket is at most 1/SUB (about 3%) of
+ * its value wide from 1 ns to the largest long. Any thread can record with one
+ * atomic increment and no allocation; the counts are read while being recorded.
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class LatencyHistogram implements LatencyHistogramMBean {
+    //sub-buckets per power of 2
+    private static final int SUB_BITS = 5, SUB = 1<<SUB_BITS;
+
+    //# of buckets (up to the largest long)
+    public static final int BUCKETS = (64-SUB_BITS)*SUB;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * constructor
+     * @param name name of what is measured
+     */
+    public LatencyHistogram(String name){
+        this.name = name;
+    }
+
+    /**
+     * count a duration (any thread)
+     * @param nanos duration in nanoseconds (negative counts as 0)
+     */
+    public void record(long nanos){
+        if(nanos<0){
+            nanos = 0;
+        }
+        counts.getAndIncrement(bucket(nanos));
+        long highest = max.get();
+        while(nanos>highest && !max.compareAndSet(highest, nanos)){
+            highest = max.get();
+        }
+    }
+
+    /**
+     * @return bucket of a value
+     */
+    static int bucket(long value){
+        if(value<2*SUB){
+            return (int) value;
+        }
+        int shift = 63-Long.numberOfLeadingZeros(value)-SUB_BITS;
+        return shift*SUB+(int) (value>>>shift);
+    }
+
+    /**
+     * @return highest value of a bucket
+     */
+    static long highest(int bucket){
+        if(bucket<2*SUB){
+            return bucket;
+        }
+        int shift = bucket/SUB-1;
+        return ((long) (bucket-shift*SUB+1)<<shift)-1;
+    }
+
+    /**
+     * copy the counts
+     * @param out receives BUCKETS counts
+     * @return total of the counts
+     */
+    public long copy(long[] out){
+        long total = 0;
+        for(int i=0;i<BUCKETS;i++){
+            out[i] = counts.get(i);
+            total += out[i];
+        }
+        return total;
+    }
+
+    /**
+     * @param counts counts of the buckets
+     * @param total total of the counts
+     * @param fraction fraction of the values at or below the result (0 to 1)
+     * @return highest value of the bucket holding that fraction of the values (0 if there are none)
+     */
+    public static long percentile(long[] counts, long total, double fraction){
+        if(total==0){
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction*total));
+        long seen = 0;
+        for(int i=0;i<counts.length;i++){
+            seen += counts[i];
+            if(seen>=rank){
+                return highest(i);
+            }
+        }
+        return highest(counts.length-1);
+    }
+
+    /**
+     * @return value at a fraction of the recorded values (see percentile)
+     */
+    public long getPercentile(double fraction){
+        long[] copy = new long[BUCKETS];
+        return percentile(copy, copy(copy), fraction);
+    }
+
+    @Override
+    public String getName(){
+        return name;
+    }
+
+    @Override
+    public long getCount(){
+        return copy(new long[BUCKETS]);
+    }
+
+    @Override
+    public long getP50(){
+        return getPercentile(0.5);
+    }
+
+    @Override
+    public long getP99(){
+        return getPercentile(0.99);
+    }
+
+    @Override
+    public long getP999(){
+        return getPercentile(0.999);
+    }
+
+    @Override
+    public long getMax(){
+        return max.get();
+    }
+
+    /**
+     * forget every recorded value (values recorded meanwhile may be kept)
+     */
+    @Override
+    public void reset(){
+        for(int i=0;i<BUCKETS;i++){
+            counts.set(i, 0);
+        }
+        max.set(0);
+    }
+}
@@ -0,0 +1,44 @@
+package gygd.pentris.choi;
+
+/**
+ * interface of a LatencyHistogram as seen through JMX (part of Pentris)
+ * Durations are in nanoseconds, and percentiles are the highest value of their bucket.
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public interface LatencyHistogramMBean {
+    /**
+     * @return name of what is measured
+     */
+    String getName();
+
+    /**
+     * @return # of recorded values
+     */
+    long getCount();
+
+    long getP50();
+
+    long getP99();
+
+    long getP999();
+
+    long getMax();
+
+    /**
+     * forget every recorded value
+     */
+    void reset();
+}
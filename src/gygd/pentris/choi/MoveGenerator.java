@@ -0,0 +1,305 @@
+package gygd.pentris.choi;
+
+import java.util.Arrays;
+
+/**
+ * MoveGenerator class (part of Pentris)
+ * Finds every landing placement of a piece that the player can reach, with
+ * the shortest sequence of moves to it.
+ * The search is a breadth-first search over (x, y, rotation) with the moves
+ * of GameEngine.step (LEFT, RIGHT, DOWN and rotations in place), so tucks
+ * under overhangs and rotations into gaps are found as well.
+ * The positions where the piece fits are computed first from the column masks
+ * of the board, one long per (rotation, x) with a bit per y, so every step of
+ * the search is a bit test. Visited states are cleared from a copy of that layout
+ * and every buffer is reused, so a search allocates nothing.
+ * A generator is used by one thread at a time.
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class MoveGenerator {
+    private static final byte DOWN = (byte) Direction.DOWN.ordinal();
+    private static final byte LEFT = (byte) Direction.LEFT.ordinal();
+    private static final byte RIGHT = (byte) Direction.RIGHT.ordinal();
+    private static final byte ROTATE_LEFT = (byte) Direction.ROTATE_LEFT.ordinal();
+    private static final byte ROTATE_RIGHT = (byte) Direction.ROTATE_RIGHT.ordinal();
+
+    //room around the board for blocks of a piece sticking out of its bounding box
+    private static final int MARGIN = margin();
+
+    //highest supported board (y+MARGIN of every state fits in a long)
+    public static final int MAX_HEIGHT = 64-2*MARGIN;
+
+    protected final int HEIGHT, WIDTH;
+
+    //bits of x in the index of a column of states (index is rotation<<X_BITS | x+MARGIN)
+    private final int X_BITS;
+
+    //mask of the rows below the board
+    private final long floor;
+
+    //one long per column of states (bit y+MARGIN is the state at y):
+    //positions where the piece fits, positions where it fits that were not visited yet,
+    //and listed placements
+    private final long[] fit, open, listed;
+
+    //queue of states (column<<6 | y+MARGIN), and the state and move each state was reached from
+    private final int[] queue, parent;
+    private final byte[] move;
+
+    //landing placements of the last search
+    private final int[] state, rotation, x, y;
+    private int count;
+
+    //start state of the last search
+    private int start;
+
+    /**
+     * constructor
+     * @param height height of the board (at most MAX_HEIGHT)
+     * @param width width of the board
+     */
+    public MoveGenerator(int height, int width){
+        if(width<1 || width>BoardModel.MAX_WIDTH || height<1 || height>MAX_HEIGHT){
+            throw new IllegalArgumentException("Unsupported board size: "+height+"x"+width);
+        }
+        HEIGHT = height; WIDTH = width;
+        X_BITS = 32-Integer.numberOfLeadingZeros(WIDTH+2*MARGIN-1);
+        floor = -1L<<HEIGHT;
+
+        int columns = PieceCatalog.ROTATIONS<<X_BITS;
+        fit = new long[columns];
+        open = new long[columns];
+        listed = new long[columns];
+
+        int states = columns<<6;
+        queue = new int[states];
+        parent = new int[states];
+        move = new byte[states];
+
+        state = new int[states];
+        rotation = new int[states];
+        x = new int[states];
+        y = new int[states];
+    }
+
+    /**
+     * @return largest offset of a block from the center of any piece, plus one
+     */
+    private static int margin(){
+        int m = 0;
+        for(int t=0;t<PieceCatalog.nTypes;t++){
+            for(int r=0;r<PieceCatalog.ROTATIONS;r++){
+                m = Math.max(m, Math.max(-PieceCatalog.minX[t][r], PieceCatalog.maxX[t][r]));
+                m = Math.max(m, Math.max(-PieceCatalog.minY[t][r], PieceCatalog.maxY[t][r]));
+            }
+        }
+        return m+1;
+    }
+
+    /**
+     * @return index of a column of states
+     */
+    private int column(int r, int px){
+        return (r<<X_BITS)+px+MARGIN;
+    }
+
+    /**
+     * find every position where a piece fits, one column of states at a time
+     */
+    private void fill(BoardModel board, int type){
+        Arrays.fill(fit, 0L);
+        for(int r=0;r<PieceCatalog.ROTATIONS;r++){
+            int [][] coord = PieceCatalog.offsets[type][r];
+            for(int px=-PieceCatalog.minX[type][r];px<WIDTH-PieceCatalog.maxX[type][r];px++){
+                //bit y+MARGIN is blocked if a block of the piece at y is on a filled row or below the board
+                long blocked = 0;
+                for(int block=0;block<coord.length;block++){
+                    blocked |= (board.getColumn(px+coord[block][0]) | floor)<<(MARGIN-coord[block][1]);
+                }
+                fit[column(r, px)] = ~blocked;
+            }
+        }
+    }
+
+    /**
+     * find every reachable landing placement of a piece
+     * @param board board of stopped blocks
+     * @param type ordinal of the TYPE
+     * @param startRotation rotation of the piece
+     * @param startX x of the piece
+     * @param startY y of the piece (the position must be FREE)
+     * @return # of placements, ordered by the length of their moves
+     */
+    public int generate(BoardModel board, int type, int startRotation, int startX, int startY){
+        fill(board, type);
+        System.arraycopy(fit, 0, open, 0, fit.length);
+        Arrays.fill(listed, 0L);
+        count = 0;
+
+        int col = column(startRotation, startX);
+        start = col<<6 | startY+MARGIN;
+        open[col] &= ~(1L<<(startY+MARGIN));
+        queue[0] = start;
+        int head = 0, tail = 1;
+
+        while(head<tail){
+            int s = queue[head++];
+            col = s>>>6;
+            int bit = s&63;
+            long f = fit[col];
+            boolean canFall = (f & (2L<<bit))!=0;
+
+            //DROP from here lands on the first placement of the shortest moves
+            //(a state reached with DOWN lands where its parent does, which was listed already)
+            if(s==start || move[s]!=DOWN){
+                land(type, col, bit+Long.numberOfTrailingZeros(~(f>>>bit))-1, s);
+            }
+
+            //a DOWN that cannot move locks the piece (that is the DROP above)
+            if(canFall){
+                tail = visit(col, bit+1, s, DOWN, tail);
+            }
+            tail = visit(col-1, bit, s, LEFT, tail);
+            tail = visit(col+1, bit, s, RIGHT, tail);
+
+            int r = col>>>X_BITS, rest = col-(r<<X_BITS);
+            tail = visit(((r+1)&(PieceCatalog.ROTATIONS-1))<<X_BITS | rest, bit, s, ROTATE_RIGHT, tail);
+            tail = visit(((r-1)&(PieceCatalog.ROTATIONS-1))<<X_BITS | rest, bit, s, ROTATE_LEFT, tail);
+        }
+        return count;
+    }
+
+    /**
+     * queue a state if the piece fits there and it was not visited
+     * @return new tail of the queue
+     */
+    private int visit(int col, int bit, int from, byte dir, int tail){
+        long b = 1L<<bit;
+        if((open[col] & b)==0){
+            return tail;
+        }
+        open[col] &= ~b;
+        int s = col<<6 | bit;
+        parent[s] = from;
+        move[s] = dir;
+        queue[tail] = s;
+        return tail+1;
+    }
+
+    /**
+     * list a landing placement unless one covering the same blocks was listed
+     */
+    private void land(int type, int col, int bit, int from){
+        int r = col>>>X_BITS;
+        int px = col-(r<<X_BITS)-MARGIN, py = bit-MARGIN;
+
+        int c = PieceCatalog.canonical[type][r];
+        int key = column(c, px+PieceCatalog.minX[type][r]-PieceCatalog.minX[type][c]);
+        long b = 1L<<(py+PieceCatalog.minY[type][r]-PieceCatalog.minY[type][c]+MARGIN);
+        if((listed[key] & b)!=0){
+            return;
+        }
+        listed[key] |= b;
+
+        state[count] = from;
+        rotation[count] = r;
+        x[count] = px;
+        y[count] = py;
+        count++;
+    }
+
+    /**
+     * @return longest possible result of getMoves
+     */
+    public int getMaxMoves(){
+        return queue.length+1;
+    }
+
+    /**
+     * @return # of placements found by the last search
+     */
+    public int getCount(){
+        return count;
+    }
+
+    /**
+     * @return rotation of a placement
+     */
+    public int getRotation(int i){
+        return rotation[i];
+    }
+
+    /**
+     * @return x of a placement
+     */
+    public int getX(int i){
+        return x[i];
+    }
+
+    /**
+     * @return y of a placement
+     */
+    public int getY(int i){
+        return y[i];
+    }
+
+    /**
+     * write the shortest moves to a placement
+     * @param i index of the placement
+     * @param out receives Direction ordinals, ending with DROP
+     * @return # of moves
+     */
+    public int getMoves(int i, int[] out){
+        int n = 0;
+        for(int s=state[i];s!=start;s=parent[s]){
+            n++;
+        }
+        out[n] = Direction.DROP.ordinal();
+
+        int k = n;
+        for(int s=state[i];s!=start;s=parent[s]){
+            out[--k] = move[s];
+        }
+        return n+1;
+    }
+
+    /**
+     * main test method: print the time to generate the moves of random pieces
+     * @param args mode (optional)
+     */
+    public static void main(String[] args){
+        String mode = args.length>0 ? args[0] : Pentris.PENTRIS;
+        GameEngine engine = new GameEngine(25, 12, mode, 1);
+        MoveGenerator generator = new MoveGenerator(25, 12);
+        Bot bot = new Bot(new WeightedHeuristic(), 0);
+
+        long placements = 0, searches = 0, nanos = 0;
+        while(searches<100000){
+            if(engine.isOver()){
+                engine.reset(searches);
+            }
+            Piece piece = engine.getPiece();
+            long start = System.nanoTime();
+            placements += generator.generate(engine.getBoard(), piece.type.ordinal(),
+                    piece.rotation, piece.x, piece.y);
+            nanos += System.nanoTime()-start;
+            searches++;
+            bot.play(engine);
+        }
+        System.out.println(String.format("%d searches, %.1f placements/search, %.2f us/search",
+                searches, (double) placements/searches, nanos/1e3/searches));
+    }
+}
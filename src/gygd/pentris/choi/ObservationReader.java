@@ -0,0 +1,214 @@
+package gygd.pentris.choi;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static gygd.pentris.choi.ObservationRing.*;
+
+/**
+ * ObservationReader class (part of Pentris)
+ * Reference reader of an ObservationRing file, for a trainer in another process.
+ * poll waits for the next observation, the getters read it in place from the
+ * mapped file, and release hands its slot back to the writer, so an observation
+ * is never copied. A trainer in another language follows the same steps with the
+ * layout described in ObservationRing.
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class ObservationReader {
+    private final MappedByteBuffer buffer;
+    private final int slots, slotSize, height, width, rows;
+
+    //# of observations consumed, offset of the current slot (-1 if there is none)
+    private long consumed;
+    private int slot = -1;
+
+    /**
+     * open a ring file, waiting for its writer to create it
+     * @param path file of the ring
+     * @param timeoutMs longest wait for the header
+     */
+    public ObservationReader(String path, long timeoutMs) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis()+timeoutMs;
+        MappedByteBuffer mapped = null;
+        while(mapped==null){
+            try(RandomAccessFile file = new RandomAccessFile(path, "rw")){
+                if(file.length()>=DATA){
+                    mapped = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+                    mapped.order(ByteOrder.nativeOrder());
+                    if((int) INTS.getAcquire(mapped, 0)!=MAGIC){
+                        mapped = null;
+                    }
+                }
+            }
+            if(mapped==null){
+                if(System.currentTimeMillis()>deadline){
+                    throw new IOException("No observation ring in "+path);
+                }
+                Thread.sleep(10);
+            }
+        }
+        buffer = mapped;
+        if(buffer.getInt(4)!=ObservationRing.VERSION || buffer.getInt(PREVIEW)!=GameEngine.PREVIEW){
+            throw new IOException("Unsupported observation ring: version "+buffer.getInt(4));
+        }
+        slots = buffer.getInt(SLOTS);
+        slotSize = buffer.getInt(SLOT_SIZE);
+        height = buffer.getInt(ObservationRing.HEIGHT);
+        width = buffer.getInt(ObservationRing.WIDTH);
+        rows = ObservationRing.rowsOffset();
+    }
+
+    /**
+     * look for the next observation (the previous one must be released)
+     * @return true if it was published, and it is now the current observation
+     */
+    public boolean poll(){
+        int next = DATA+(int) (consumed%slots)*slotSize;
+        if((long) LONGS.getAcquire(buffer, next+SEQUENCE)!=consumed+1){
+            return false;
+        }
+        slot = next;
+        return true;
+    }
+
+    /**
+     * wait for the next observation
+     * @param timeoutNanos longest wait
+     * @return true if it was published, and it is now the current observation
+     */
+    public boolean await(long timeoutNanos){
+        if(poll()){
+            return true;
+        }
+        long deadline = System.nanoTime()+timeoutNanos;
+        for(int spin=0;!poll();spin++){
+            if(System.nanoTime()-deadline>0){
+                return false;
+            }
+            backOff(spin);
+        }
+        return true;
+    }
+
+    /**
+     * hand the slot of the current observation back to the writer
+     */
+    public void release(){
+        slot = -1;
+        consumed++;
+        LONGS.setRelease(buffer, CONSUMED, consumed);
+    }
+
+    public int getGame(){
+        return buffer.getInt(slot+GAME);
+    }
+
+    /**
+     * @return TYPE ordinal of the active piece
+     */
+    public int getType(){
+        return buffer.getInt(slot+TYPE_ORDINAL);
+    }
+
+    public int getRotation(){
+        return buffer.getInt(slot+ROTATION);
+    }
+
+    public int getX(){
+        return buffer.getInt(slot+X);
+    }
+
+    public int getY(){
+        return buffer.getInt(slot+Y);
+    }
+
+    public float getReward(){
+        return buffer.getFloat(slot+REWARD);
+    }
+
+    public int getScore(){
+        return buffer.getInt(slot+SCORE);
+    }
+
+    public int getLines(){
+        return buffer.getInt(slot+LINES);
+    }
+
+    public long getPieces(){
+        return buffer.getLong(slot+PIECES);
+    }
+
+    public boolean isDone(){
+        return buffer.getInt(slot+DONE)!=0;
+    }
+
+    /**
+     * @return TYPE ordinal of an upcoming piece (0 for the next piece)
+     */
+    public int getNextType(int i){
+        return buffer.getInt(slot+NEXT+4*i);
+    }
+
+    /**
+     * @return occupancy of a row (bit c is column c)
+     */
+    public long getRow(int row){
+        return buffer.getLong(slot+rows+8*row);
+    }
+
+    /**
+     * @return # of observations consumed
+     */
+    public long getConsumed(){
+        return consumed;
+    }
+
+    public int getHeight(){
+        return height;
+    }
+
+    public int getWidth(){
+        return width;
+    }
+
+    /**
+     * main test method: read a ring until its writer stops for a second and print
+     * the speed (run it next to ObservationRing.main in another process)
+     * @param args file (optional)
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String path = args.length>0 ? args[0] : "observations.ring";
+        ObservationReader reader = new ObservationReader(path, 60000);
+
+        long checksum = 0, blocks = 0, start = 0;
+        while(reader.await(1000000000L)){
+            if(start==0){
+                start = System.nanoTime();
+            }
+            checksum += reader.getType()*31+reader.getScore();
+            for(int r=0;r<reader.getHeight();r++){
+                blocks += Long.bitCount(reader.getRow(r));
+            }
+            reader.release();
+        }
+        double seconds = (System.nanoTime()-start)/1e9-1; //without the last wait
+        System.out.println(String.format("%d observations, %.0f observations/s, %.2f blocks/observation, checksum %d",
+                reader.getConsumed(), reader.getConsumed()/seconds, (double) blocks/Math.max(reader.getConsumed(), 1), checksum));
+    }
+}
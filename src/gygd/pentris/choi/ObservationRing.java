@@ -0,0 +1,339 @@
+package gygd.pentris.choi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * ObservationRing class (part of Pentris)
+ * Writes observations of headless games into a memory-mapped file that a trainer
+ * in another local process reads in place (see ObservationReader).
+ * The file is a header followed by a ring of fixed-size slots. Observation n goes
+ * to slot n%slots and is published by writing n+1 to the sequence of the slot
+ * last (release); the reader waits for that sequence (acquire), reads the slot and
+ * writes the # of observations it consumed to the header (release), so the writer
+ * never overwrites a slot that was not read.
+ *
+ * Layout (native byte order):
+ *   header: magic, version, slots, slot size, height, width, preview (ints),
+ *           published count (long at PUBLISHED), consumed count (long at CONSUMED)
+ *   slot:   sequence (long), game, type, rotation, x, y (ints), reward (float),
+ *           score, lines (ints), pieces (long), done (int), preview types (ints),
+ *           then one long per row (bit c is column c)
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class ObservationRing implements AutoCloseable {
+    public static final int MAGIC = 0x504E4F42; //"PNOB"
+    public static final int VERSION = 1;
+
+    //offsets in the header (the two counters are on their own cache lines)
+    static final int SLOTS = 8, SLOT_SIZE = 12, HEIGHT = 16, WIDTH = 20, PREVIEW = 24;
+    static final int PUBLISHED = 64, CONSUMED = 128, DATA = 192;
+
+    //offsets in a slot
+    static final int SEQUENCE = 0, GAME = 8, TYPE_ORDINAL = 12, ROTATION = 16, X = 20, Y = 24,
+            REWARD = 28, SCORE = 32, LINES = 36, PIECES = 40, DONE = 48, NEXT = 52;
+
+    //atomic access to the longs and ints of a mapped buffer (offsets must be aligned)
+    static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    //# of busy spins before a waiting side yields its core
+    static final int SPINS = 100;
+
+    private final MappedByteBuffer buffer;
+    private final int slots, slotSize, height, width;
+
+    //# of observations written, last consumed count read from the reader
+    private long published, consumed;
+
+    //# of times the writer waited for the reader
+    private long waits;
+
+    /**
+     * create (or overwrite) a ring file
+     * @param path file to map
+     * @param slots # of slots
+     * @param height height of the boards
+     * @param width width of the boards
+     */
+    public ObservationRing(String path, int slots, int height, int width) throws IOException {
+        if(slots<1 || height<1 || height>BoardModel.MAX_HEIGHT || width<1 || width>BoardModel.MAX_WIDTH){
+            throw new IllegalArgumentException("Unsupported ring: "+slots+" slots of "+height+"x"+width);
+        }
+        this.slots = slots;
+        this.height = height;
+        this.width = width;
+        slotSize = slotSize(height);
+        if(DATA+(long) slots*slotSize>Integer.MAX_VALUE){
+            throw new IllegalArgumentException("Ring too large: "+slots+" slots of "+slotSize+" bytes");
+        }
+
+        try(RandomAccessFile file = new RandomAccessFile(path, "rw")){
+            file.setLength(0); //a reader of an old ring must not see its slots
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, DATA+slots*slotSize);
+        }
+        buffer.order(ByteOrder.nativeOrder());
+
+        buffer.putInt(SLOTS, slots);
+        buffer.putInt(SLOT_SIZE, slotSize);
+        buffer.putInt(HEIGHT, height);
+        buffer.putInt(WIDTH, width);
+        buffer.putInt(PREVIEW, GameEngine.PREVIEW);
+        buffer.putInt(4, VERSION);
+        //the magic number comes last, so a reader sees a complete header
+        INTS.setRelease(buffer, 0, MAGIC);
+    }
+
+    /**
+     * @return size of a slot for a height, rounded up to a cache line
+     */
+    static int slotSize(int height){
+        int size = NEXT+4*GameEngine.PREVIEW;
+        size = (size+7) & ~7;
+        return (size+8*height+63) & ~63;
+    }
+
+    /**
+     * @return offset of the rows in a slot
+     */
+    static int rowsOffset(){
+        return (NEXT+4*GameEngine.PREVIEW+7) & ~7;
+    }
+
+    /**
+     * wait for a free slot
+     * @return offset of the slot of the next observation
+     */
+    private int claim(){
+        long limit = published-slots;
+        if(consumed<=limit){
+            consumed = (long) LONGS.getAcquire(buffer, CONSUMED);
+            for(int spin=0;consumed<=limit;spin++){
+                waits++;
+                backOff(spin);
+                consumed = (long) LONGS.getAcquire(buffer, CONSUMED);
+            }
+        }
+        return DATA+(int) (published%slots)*slotSize;
+    }
+
+    /**
+     * wait a little, spinning first and then yielding (the other side may share the core)
+     * @param spin # of waits so far
+     */
+    static void backOff(int spin){
+        if(spin<SPINS){
+            Thread.onSpinWait();
+        }else{
+            Thread.yield();
+        }
+    }
+
+    /**
+     * publish a filled slot
+     */
+    private void publish(int slot){
+        published++;
+        LONGS.setRelease(buffer, slot+SEQUENCE, published);
+        LONGS.setOpaque(buffer, PUBLISHED, published);
+    }
+
+    /**
+     * write the observation of a game of a VectorEnv
+     * @param env environment (with the same board size as the ring)
+     * @param game index of the game
+     * @param reward reward of its last step
+     * @param done true if its last step ended an episode
+     */
+    public void write(VectorEnv env, int game, float reward, boolean done){
+        int slot = claim();
+        buffer.putInt(slot+GAME, game);
+        buffer.putInt(slot+TYPE_ORDINAL, env.getTypes()[game]);
+        buffer.putInt(slot+ROTATION, env.getRotations()[game]);
+        buffer.putInt(slot+X, env.getX()[game]);
+        buffer.putInt(slot+Y, env.getY()[game]);
+        buffer.putFloat(slot+REWARD, reward);
+        buffer.putInt(slot+SCORE, env.getScore(game));
+        buffer.putInt(slot+LINES, env.getLines(game));
+        buffer.putLong(slot+PIECES, env.getPieces(game));
+        buffer.putInt(slot+DONE, done ? 1 : 0);
+        for(int i=0;i<GameEngine.PREVIEW;i++){
+            buffer.putInt(slot+NEXT+4*i, env.getNextType(game, i));
+        }
+
+        long [] rows = env.getRows();
+        int row = slot+rowsOffset();
+        for(int r=0;r<height;r++){
+            buffer.putLong(row+8*r, rows[game*height+r]);
+        }
+        publish(slot);
+    }
+
+    /**
+     * write the observation of a GameEngine
+     * (without an active piece, at the end of a game, the piece is NOTYPE at 0, 0)
+     * @param game id of the game
+     * @param reward reward of its last step
+     */
+    public void write(GameEngine engine, int game, float reward){
+        int slot = claim();
+        Piece piece = engine.getPiece();
+        buffer.putInt(slot+GAME, game);
+        buffer.putInt(slot+TYPE_ORDINAL, piece==null ? TYPE.NOTYPE.ordinal() : piece.type.ordinal());
+        buffer.putInt(slot+ROTATION, piece==null ? 0 : piece.rotation);
+        buffer.putInt(slot+X, piece==null ? 0 : piece.x);
+        buffer.putInt(slot+Y, piece==null ? 0 : piece.y);
+        buffer.putFloat(slot+REWARD, reward);
+        buffer.putInt(slot+SCORE, engine.getScore());
+        buffer.putInt(slot+LINES, engine.getLines());
+        buffer.putLong(slot+PIECES, engine.getPieces());
+        buffer.putInt(slot+DONE, engine.isOver() ? 1 : 0);
+        for(int i=0;i<GameEngine.PREVIEW;i++){
+            buffer.putInt(slot+NEXT+4*i, engine.getNextType(i));
+        }
+
+        BoardModel board = engine.getBoard();
+        int row = slot+rowsOffset();
+        for(int r=0;r<height;r++){
+            buffer.putLong(row+8*r, board.getRow(r));
+        }
+        publish(slot);
+    }
+
+    /**
+     * @return # of observations written
+     */
+    public long getPublished(){
+        return published;
+    }
+
+    /**
+     * @return # of times the writer waited for the reader to free a slot
+     */
+    public long getWaits(){
+        return waits;
+    }
+
+    public int getSlots(){
+        return slots;
+    }
+
+    public int getHeight(){
+        return height;
+    }
+
+    public int getWidth(){
+        return width;
+    }
+
+    /**
+     * flush the ring to the file (a reader on the same machine does not need it)
+     */
+    @Override
+    public void close(){
+        buffer.force();
+    }
+
+    /**
+     * main test method: headless training mode, stepping a VectorEnv with random
+     * placements and writing every observation to a ring,
+     * or without arguments, check the observations of GameEngine games read back in place
+     * @param args file, # of games, # of steps, slots (optional)
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if(args.length==0){
+            check();
+            return;
+        }
+        String path = args[0];
+        int n = args.length>1 ? Integer.parseInt(args[1]) : 256;
+        long steps = args.length>2 ? Long.parseLong(args[2]) : 20000;
+        int slots = args.length>3 ? Integer.parseInt(args[3]) : 4096;
+
+        VectorEnv env = new VectorEnv(n, 25, 12, Pentris.PENTRIS, 10000, 1);
+        int[] actions = new int[n];
+        float[] rewards = new float[n];
+        boolean[] dones = new boolean[n];
+        long z = 1;
+
+        try(ObservationRing ring = new ObservationRing(path, slots, 25, 12)){
+            long start = System.nanoTime();
+            for(long s=0;s<steps;s++){
+                for(int i=0;i<n;i++){
+                    z += 0x9E3779B97F4A7C15L;
+                    actions[i] = (int) (((z^(z>>>29))*0xBF58476D1CE4E5B9L>>>33)%env.PLACEMENTS);
+                }
+                env.step(actions, rewards, dones);
+                for(int i=0;i<n;i++){
+                    ring.write(env, i, rewards[i], dones[i]);
+                }
+            }
+            double seconds = (System.nanoTime()-start)/1e9;
+            System.out.println(String.format("%d observations, %.0f observations/s, %d waits",
+                    ring.getPublished(), ring.getPublished()/seconds, ring.getWaits()));
+        }
+    }
+
+    /**
+     * play GameEngine games to their end with random drops, write an observation after
+     * every step and compare what a reader sees, including the last (done) one
+     */
+    private static void check() throws IOException, InterruptedException {
+        File file = File.createTempFile("pentris", ".ring");
+        file.deleteOnExit();
+        java.util.Random rand = new java.util.Random(1);
+        Direction[] moves = {Direction.LEFT, Direction.RIGHT, Direction.ROTATE_RIGHT, Direction.DROP};
+        int games = 20, observations = 0, mismatches = 0, dones = 0;
+
+        try(ObservationRing ring = new ObservationRing(file.getPath(), 16, 25, 12)){
+            ObservationReader reader = new ObservationReader(file.getPath(), 1000);
+            GameEngine engine = new GameEngine(25, 12, Pentris.PENTRIS, 0);
+            for(int game=0;game<games;game++){
+                engine.reset(game);
+                while(!engine.isOver()){
+                    int score = engine.getScore();
+                    engine.step(moves[rand.nextInt(moves.length)]);
+                    ring.write(engine, game, engine.getScore()-score);
+
+                    reader.poll();
+                    Piece piece = engine.getPiece();
+                    boolean same = reader.getGame()==game && reader.isDone()==engine.isOver()
+                            && reader.getType()==(piece==null ? TYPE.NOTYPE.ordinal() : piece.type.ordinal())
+                            && reader.getScore()==engine.getScore() && reader.getPieces()==engine.getPieces();
+                    for(int r=0;r<25;r++){
+                        same &= reader.getRow(r)==engine.getBoard().getRow(r);
+                    }
+                    if(!same){
+                        mismatches++;
+                    }
+                    if(reader.isDone()){
+                        dones++;
+                    }
+                    reader.release();
+                    observations++;
+                }
+            }
+        }
+        System.out.println(String.format("%d observations, %d mismatches, %d/%d games ended with a done observation",
+                observations, mismatches, dones, games));
+    }
+}
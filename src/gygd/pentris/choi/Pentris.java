@@ -3,10 +3,16 @@ package gygd.pentris.choi;
 import java.awt.BorderLayout;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.swing.JButton;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 
 /**
  * Pentris class to manage the whole frame
@@ -27,13 +33,51 @@ import javax.swing.JOptionPane;
  */
 public class Pentris implements KeyListener {
     private JFrame window;
-    private Board gameBoard;
+    private BoardView gameBoard;
     private GameThread gameThread;
-    private Piece curPiece;
+    private GameEngine engine;
     private GameInfo gameInfo;
 
-    private boolean isPlaying;
-    private boolean isPaused;
+    // inputs waiting for the game thread (room for a whole plan of the bot and the keys)
+    private final CommandQueue commands = new CommandQueue(2 * (BoardModel.MAX_WIDTH + BoardModel.MAX_HEIGHT) + 64);
+
+    // only written by the game thread
+    private volatile boolean isPlaying;
+    private volatile boolean isPaused;
+    private String status = "Playing";
+    private long snapshots;
+
+    // bot that plays in place of the player (only used by the game thread)
+    // -Dpentris.bot=expectimax for the expectimax search (30ms per move)
+    private final Planner bot = "expectimax".equals(System.getProperty("pentris.bot"))
+            ? new ExpectimaxBot(new WeightedHeuristic(), 1, 30, ForkJoinPool.commonPool(), new TranspositionTable(1 << 18))
+            : new Bot();
+    private boolean isBotOn;
+    private long botPiece = -1; // piece the bot last played
+    private final int[] botMoves = new int[2 * (BoardModel.MAX_WIDTH + BoardModel.MAX_HEIGHT)];
+
+    // what the last published snapshot showed
+    private long shownVersion = -1, shownSecond;
+    private String shownStatus;
+
+    // latency histograms of the game thread and the EDT
+    private final GameMetrics metrics = new GameMetrics();
+
+    // latest state for the EDT
+    private TripleBuffer<Snapshot> screen;
+    private final AtomicBoolean isPaintPending = new AtomicBoolean();
+    private volatile long paintRequested; // time the pending paint was requested
+    private final Runnable painter = new Runnable() {
+        public void run() {
+            long start = System.nanoTime();
+            metrics.frame.record(start - paintRequested);
+            isPaintPending.set(false);
+            Snapshot snapshot = screen.latest();
+            gameBoard.show(snapshot.frame);
+            gameInfo.update(snapshot);
+            metrics.paint.record(System.nanoTime() - start);
+        }
+    };
 
     private String mode;
     protected final static String TETRIS = "Play Tetris";
@@ -42,6 +86,7 @@ public class Pentris implements KeyListener {
     protected final static String ABOUT = "About This Program";
     protected final static String HOTKEY = "Hot Keys";
     private final int BLOCK_SIZE = 28;
+    private static final Direction[] DIRECTIONS = Direction.values();
     private int WIDTH = 12, HEIGHT = 25;
 
     /**
@@ -61,7 +106,7 @@ public class Pentris implements KeyListener {
                                 "About", JOptionPane.INFORMATION_MESSAGE);
             } else if (mode.equals(HOTKEY)) {
                 JOptionPane.showMessageDialog(null, "P: Pause\n"
-                        + "R: Restart\n" + "SPACE: drop\n" + "UP: rotate\n"
+                        + "R: Restart\n" + "B: Bot on/off\n" + "SPACE: drop\n" + "UP: rotate\n"
                         + "LEFT, RIGHT, DOWN: move to a direction",
 
                 "Hot Keys", JOptionPane.INFORMATION_MESSAGE);
@@ -75,8 +120,65 @@ public class Pentris implements KeyListener {
         gameInfo = new GameInfo();
         window.add(gameInfo, BorderLayout.NORTH);
 
-        gameBoard = new Board(HEIGHT, WIDTH, BLOCK_SIZE); // create game board
-        window.add(gameBoard, BorderLayout.CENTER); // add board to frame
+        engine = new GameEngine(HEIGHT, WIDTH, mode, System.nanoTime()); // create rules of the game
+        // record every game (-Dpentris.replay=file, appended)
+        String replay = System.getProperty("pentris.replay");
+        if (replay != null) {
+            try {
+                final ReplayWriter recorder = new ReplayWriter(new FileOutputStream(replay, true), 1 << 14, true);
+                engine.setListener(recorder);
+                Runtime.getRuntime().addShutdownHook(new Thread() {
+                    public void run() {
+                        // the game thread keeps running, so stop it from recording first
+                        engine.setListener(null);
+                        try {
+                            recorder.close();
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                });
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        // log the events of the games (-Dpentris.telemetry=prefix of the files)
+        String telemetryPrefix = System.getProperty("pentris.telemetry");
+        if (telemetryPrefix != null) {
+            final Telemetry telemetry = new Telemetry(telemetryPrefix, 1 << 14, 1 << 24, 8);
+            engine.setTelemetry(telemetry);
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                public void run() {
+                    // the game thread keeps running, so stop it from logging first
+                    engine.setTelemetry(null);
+                    try {
+                        telemetry.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
+        // histograms through JMX, and printed every few seconds (-Dpentris.metrics=seconds)
+        commands.setLatencies(metrics.input);
+        engine.setClearTimes(metrics.clear);
+        metrics.register();
+        long dumpSeconds = Long.getLong("pentris.metrics", 0);
+        if (dumpSeconds > 0) {
+            metrics.startDumps(System.out, dumpSeconds);
+        }
+        screen = new TripleBuffer<Snapshot>(new Snapshot(HEIGHT, WIDTH),
+                new Snapshot(HEIGHT, WIDTH), new Snapshot(HEIGHT, WIDTH));
+        // create game board (-Dpentris.renderer=buttons for the grid of buttons)
+        if ("buttons".equals(System.getProperty("pentris.renderer"))) {
+            Board board = new Board(engine.getBoard(), BLOCK_SIZE);
+            window.add(board, BorderLayout.CENTER); // add board to frame
+            gameBoard = board;
+        } else {
+            BoardCanvas canvas = new BoardCanvas(engine.getBoard(), BLOCK_SIZE);
+            window.add(canvas, BorderLayout.CENTER); // add board to frame
+            gameBoard = canvas;
+        }
 
         window.setSize(WIDTH * BLOCK_SIZE, HEIGHT * BLOCK_SIZE); // set size of window
         window.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE); // close on exit
@@ -84,203 +186,191 @@ public class Pentris implements KeyListener {
         window.setVisible(true);
         window.setResizable(false);
 
-        Piece.addAllData(); // add data on color, coordinates, min/max
-
-        isPlaying = false;
         gameThread = new GameThread();
         gameThread.start();
     }
 
     /**
-     * Start a Tetris game
+     * Start a Tetris game (a running game is restarted)
      */
     public void startGame() {
-        if (!isPlaying) {
-            gameBoard.reset();
-            isPlaying = true;
-            isPaused = false;
-            curPiece = null;
-            gameInfo.reset();
-            // info = new GameInfo();
-            // Initialize the game thread.
+        send(CommandQueue.RESTART);
+    }
 
-        }
+    /**
+     * pass a command to the game thread
+     * 
+     * @param command Direction ordinal, CommandQueue.RESTART, CommandQueue.PAUSE or CommandQueue.BOT
+     */
+    private void send(int command) {
+        commands.offer(command, System.nanoTime());
+        gameThread.wake();
     }
 
     /**
-     * try to move a piece to a direction by one
+     * publish the current state of the engine to the screen (game thread only)
      * 
-     * @param piece
-     *            piece to move
-     * @param dir
-     *            direction
+     * @param time time played in milliseconds
      */
-    public boolean tryMove(Piece piece, Direction dir) {
-        // if it's ok to move the piece
-        if (isSafeToMove(piece, dir)) {
-            gameBoard.remove(piece); // graphically take out piece to board
-            piece.move(dir); // /move piece data to down
-            gameBoard.add(piece); // graphically add piece to board
-            return true;
-        } else {
-            return false;
+    private void refresh(long time) {
+        // game ends
+        if (isPlaying && engine.isOver()) {
+            isPlaying = false;
+            status = "Lost";
+        }
+
+        // nothing on the screen would change
+        if (engine.getVersion() == shownVersion && status == shownStatus && time / 1000 == shownSecond) {
+            return;
+        }
+        shownVersion = engine.getVersion();
+        shownStatus = status;
+        shownSecond = time / 1000;
+
+        screen.back().capture(engine, status, time, snapshots++);
+        screen.publish();
+
+        // at most one paint waits on the EDT
+        if (isPaintPending.compareAndSet(false, true)) {
+            paintRequested = System.nanoTime();
+            SwingUtilities.invokeLater(painter);
         }
     }
 
     /**
-     * check if it's safe to move a piece to a direction
+     * thread to run game
+     * This is the only thread that changes the engine: inputs come through the command queue,
+     * which is drained at the start of every tick and whenever the thread is woken.
+     * Gravity runs on a fixed timestep measured with System.nanoTime.
+     * The thread parks while there is no game or the game is paused.
      * 
-     * @param piece
-     *            piece to move
-     * @param dir
-     *            direction
-     * @return false only if the next section is occupied by other piece or piece reaches bottom
+     * @author Wonjohn Choi
      */
-    public boolean isSafeToMove(Piece piece, Direction dir) {
-        int coord[][]; // get the coordinate data
-
-        // rotate piece only to get the rotated data
-        if (dir == Direction.ROTATE_LEFT) {
-            coord = Piece.rotateLeft(piece.type, piece.coord);
-        } else if (dir == Direction.ROTATE_RIGHT) {
-            coord = Piece.rotateRight(piece.type, piece.coord);
-        } else {
-            coord = piece.coord;
-        }
+    private class GameThread extends Thread implements CommandQueue.Handler {
+        // a late tick is dropped instead of caught up if it is this late (ns)
+        private static final long MAX_LAG = 250000000L;
 
-        boolean isSafe = true;
-        int nextX, nextY;
+        private long nextTick; // time of the next gravity step
+        private long playTime; // time spent playing the current game
+        private long lastTime; // last time playTime was updated
 
-        // for each block
-        for (int block = 0; block < coord.length && isSafe; block++) {
-            nextX = coord[block][0] + piece.x; // get x of block
-            nextY = coord[block][1] + piece.y; // get y of block
+        GameThread() {
+            super("Pentris game thread");
+            setDaemon(true);
+        }
+
+        /**
+         * wake the thread after a command was sent
+         */
+        void wake() {
+            LockSupport.unpark(this);
+        }
 
-            // find next position
-            switch (dir) {
-                case DOWN:
-                    nextY += 1;
+        /**
+         * apply a command from the queue
+         */
+        @Override
+        public void apply(int command, long stamp) {
+            long now = System.nanoTime();
+
+            switch (command) {
+                case CommandQueue.RESTART:
+                    engine.reset(now);
+                    status = "Playing";
+                    isPaused = false;
+                    isPlaying = true;
+                    playTime = 0;
+                    lastTime = now;
+                    nextTick = now + engine.getDelay() * 1000000L;
+                    botPiece = -1;
                     break;
-                case UP:
-                    nextY -= 1;
+                case CommandQueue.BOT:
+                    isBotOn = !isBotOn;
+                    botPiece = -1;
                     break;
-                case LEFT:
-                    nextX -= 1;
+                case CommandQueue.PAUSE:
+                    if (!isPlaying) {
+                        break;
+                    }
+                    isPaused = !isPaused;
+                    if (isPaused) {
+                        status = "Paused";
+                    } else {
+                        status = "Playing";
+                        // paused time does not count
+                        lastTime = now;
+                        nextTick = now + engine.getDelay() * 1000000L;
+                    }
                     break;
-                case RIGHT:
-                    nextX += 1;
+                default:
+                    // moves only work while playing
+                    if (isPlaying && !isPaused) {
+                        engine.step(DIRECTIONS[command]);
+                    }
             }
+        }
 
-            // if piece is in screen and the piece is on a part of other piece,
-            if (gameBoard.inWidthRange(nextX) && gameBoard.inHeightRange(nextY)) {
-                // if the piece is on a part of other piece
-                if (!piece.isPart(nextY, nextX)
-                        && !gameBoard.isEmpty(nextY, nextX)) {
-                    isSafe = false; // it's not safe
-
-                    // if part of the piece goes outside of the screen,
-                    if ((Piece.min.get(piece.type)[1] + piece.y) <= 0) {
-                        isPlaying = false;// game ends
-                        gameInfo.updateStatus("Lost");
-                        // JOptionPane.showMessageDialog(window, String.format("Score: %d\nLines: %d",score,
-                        // totalRemovedLines));
-                    }
+        /**
+         * let the bot plan the moves of a new piece
+         * 
+         * @return true if moves were sent
+         */
+        private boolean autoPlay() {
+            if (!isBotOn || !isPlaying || isPaused || engine.getPiece() == null
+                    || engine.getPieces() == botPiece) {
+                return false;
+            }
+            botPiece = engine.getPieces();
+
+            // not inputs of the player, so not counted in the input latency
+            int n = bot.plan(engine, botMoves);
+            for (int i = 0; i < n; i++) {
+                if (!commands.offer(botMoves[i], CommandQueue.NO_STAMP)) {
+                    // plan again from where the queued moves leave the piece
+                    botPiece = -1;
+                    return true;
                 }
-                // piece touches bottom
-            } else if (nextY == gameBoard.HEIGHT) {
-                isSafe = false;
-                // piece goes out of left, right screen
-            } else if (!gameBoard.inWidthRange(nextX)) {
-                isSafe = false;
             }
-
+            return n > 0;
         }
 
-        return isSafe;
-    }
-
-    /**
-     * thread to run game
-     * 
-     * @author Wonjohn Choi
-     */
-    private class GameThread extends Thread {
         public void run() {
-
             while (true) {
-                // while playing game
-                while (isPlaying) {
-                    // while it's not paused
-                    if (!isPaused) {
-                        // if piece stopped
-                        if (curPiece == null) {
-                            int removedLines = 0;
-                            int row = gameBoard.HEIGHT - 1;
-
-                            while (row >= 0) {
-                                // System.out.println("Detecting completed lines");
-                                boolean isRemovable = true;
-
-                                // check if removable a line
-                                for (int col = 0; col < gameBoard.WIDTH
-                                        && isRemovable; col++) {
-                                    if (gameBoard.isEmpty(row, col)) {
-                                        isRemovable = false;
-                                    }
-                                }
-
-                                // if removable
-                                if (isRemovable) {
-                                    // Remove the row.
-                                    gameBoard.removeRow(row);
-
-                                    removedLines++;
-                                    gameInfo.updateLines(1);
-
-                                    // change speed of play for every 10 lines
-                                    gameInfo.updateLevel();
-
-                                } else {
-                                    // search next row
-                                    row--;
-                                }
-                            }
-
-                            // calculator score if removed lines exist
-                            if (removedLines > 0) {
-                                gameInfo.updateScore(removedLines
-                                        * removedLines * 10);
-                            }
-
-                            curPiece = new Piece(mode);
-                            curPiece.x = gameBoard.WIDTH / 2 - 1; // locate piece in the middle
-                            curPiece.y = -Piece.max.get(curPiece.type)[1]; // locate piece at the top
-                            gameBoard.add(curPiece);
-
-                            // if piece is working fine,
-                        } else {
-                            // if piece cannot move down due to other pieces
-                            if (!tryMove(curPiece, Direction.DOWN)) {
-                                curPiece = null; // piece stops
-                            }
+                if (commands.drain(this) > 0) {
+                    refresh(playTime / 1000000L);
+                }
 
-                        }
-                    }
-                    // if piece didn't stop
-                    if (curPiece != null) {
-                        // stop for a while (delay)
-                        try {
-                            sleep(gameInfo.getDelay());
-                        } catch (InterruptedException e) {
-                            System.err.println("Exception e: " + e);
-                        }
-                    }
+                // moves of the bot go through the queue like keys
+                if (autoPlay()) {
+                    continue;
+                }
 
-                    if (!isPaused && isPlaying) {
-                        gameInfo.updateTime();
-                    }
+                // park while there is nothing to do
+                if (!isPlaying || isPaused) {
+                    LockSupport.park(this);
+                    continue;
                 }
 
+                long now = System.nanoTime();
+                if (now - nextTick < 0) {
+                    // stop for a while (delay)
+                    LockSupport.parkNanos(this, nextTick - now);
+                    continue;
+                }
+
+                metrics.late.record(now - nextTick);
+                playTime += now - lastTime;
+                lastTime = now;
+
+                engine.tick(); // move piece down, or stop it and spawn the next one
+                refresh(playTime / 1000000L);
+                metrics.tick.record(System.nanoTime() - now);
+
+                // schedule from the previous tick so that drift does not accumulate
+                nextTick += engine.getDelay() * 1000000L;
+                if (now - nextTick > MAX_LAG) {
+                    nextTick = now;
+                }
             }
         }
     }
@@ -289,6 +379,7 @@ public class Pentris implements KeyListener {
      * when key is pressed
      * P: pause
      * R: restart
+     * B: bot on/off
      * Space: drop
      * 
      * @Override
@@ -297,61 +388,38 @@ public class Pentris implements KeyListener {
         // use switch to compare with given key code
         switch (e.getKeyCode()) {
             case KeyEvent.VK_R:
-                isPlaying = false;
-                startGame();
+                send(CommandQueue.RESTART);
                 break;
             case KeyEvent.VK_P:
-                isPaused = !isPaused;
-                if (isPaused) {
-                    gameInfo.updateStatus("Paused");
-                } else {
-                    gameInfo.updateStatus("Playing");
-                }
+                send(CommandQueue.PAUSE);
+                break;
+            case KeyEvent.VK_B:
+                send(CommandQueue.BOT);
                 break;
-        }
-
-        // if piece does not exist exit from the function
-        if (curPiece == null || isPaused || !isPlaying) {
-            return;
-        }
-
-        // use switch to compare with given key code
-        switch (e.getKeyCode()) {
             case KeyEvent.VK_LEFT:
-                tryMove(curPiece, Direction.LEFT);
+                send(Direction.LEFT.ordinal());
                 break;
             case KeyEvent.VK_RIGHT:
-                tryMove(curPiece, Direction.RIGHT);
+                send(Direction.RIGHT.ordinal());
                 break;
             case KeyEvent.VK_UP:
-                tryMove(curPiece, Direction.ROTATE_RIGHT);
+                send(Direction.ROTATE_RIGHT.ordinal());
                 break;
             /*
              * case KeyEvent.VK_Z:
-             * tryMove(curPiece, Direction.ROTATE_LEFT);
+             * send(Direction.ROTATE_LEFT.ordinal());
              * break;
              * case KeyEvent.VK_X:
-             * tryMove(curPiece, Direction.ROTATE_RIGHT);
+             * send(Direction.ROTATE_RIGHT.ordinal());
              * break;
              */
             case KeyEvent.VK_DOWN:
-                // if unable to move down anymore
-                if (!tryMove(curPiece, Direction.DOWN)) {
-                    curPiece = null; // stop piece
-                }
+                send(Direction.DOWN.ordinal()); // stops piece if unable to move down anymore
                 break;
             case KeyEvent.VK_SPACE:
-                gameBoard.remove(curPiece); // take out piece graphic
-
-                // keep piece down till it is destroyed
-                while (isSafeToMove(curPiece, Direction.DOWN)) {
-                    curPiece.move(Direction.DOWN);
-                }
-
-                gameBoard.add(curPiece); // add piece graphic
-                curPiece = null; // stop piece
+                send(Direction.DROP.ordinal()); // keep piece down till it stops
+                break;
         }
-
     }
 
     @Override
@@ -385,9 +453,7 @@ public class Pentris implements KeyListener {
         // wait till choosing process ends
         synchronized (mc.out) {
             try {
-                System.out.println("W1");
                 mc.out.wait();
-                System.out.println("W2");
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -52,13 +52,41 @@ enum TYPE{
 	public static TYPE getRandomType(){
 	    return values[rand.nextInt(nPentris+nTetris)+1];
 	}
+	
+	/**
+	 * @return ordinal of the first type a mode can spawn
+	 */
+	public static int firstOrdinal(String mode){
+	    return mode.equals(Pentris.TETRIS) ? 1+nPentris : 1;
+	}
+	
+	/**
+	 * @return # of types a mode can spawn (types are consecutive from firstOrdinal)
+	 */
+	public static int count(String mode){
+	    if(mode.equals(Pentris.PENTRIS)){
+	        return nPentris;
+	    }else if(mode.equals(Pentris.TETRIS)){
+	        return nTetris;
+	    }else if(mode.equals(Pentris.BOTH)){
+	        return nPentris+nTetris;
+	    }
+	    throw new IllegalArgumentException("Non-existent mode: "+mode);
+	}
+	
+	/**
+	 * @return type of an ordinal
+	 */
+	public static TYPE of(int ordinal){
+	    return values[ordinal];
+	}
 }
 
 /**
  * @author Wonjohn Choi
  */
 enum Direction{
-	DOWN, UP, RIGHT, LEFT, ROTATE_LEFT, ROTATE_RIGHT;
+	DOWN, UP, RIGHT, LEFT, ROTATE_LEFT, ROTATE_RIGHT, DROP;
 }
 
 /**
@@ -67,14 +95,14 @@ enum Direction{
  */
 public class Piece {
 	protected TYPE type; //type of the piece
-	protected int coord[][]; //coordinates of each block
+	protected int coord[][]; //coordinates of each block (shared with PieceCatalog, do not modify)
+	protected int rotation; //rotation state (index into PieceCatalog tables)
 	protected int SIZE; //# of block
 	protected Color color; //color of the piece
 	protected int x = 0, y = 0; //location of the piece
 	
 	public static HashMap<TYPE, int[][]> coords;
 	public static HashMap<TYPE, Color> colors;
-	public static HashMap<TYPE, int[]> min, max;
 	
 	/**
 	 * add coordinates data (format==(x,y))
@@ -144,53 +172,12 @@ public class Piece {
 		colors.put(TYPE.TT, new Color(140,0,140)); //purple vari
 	}
 	
-	/**
-	 * add min/max data
-	 */
-	private static void addMinMax(){
-	    min = new HashMap<TYPE, int[]>();
-        max = new HashMap<TYPE, int[]>();
-	    
-        for(TYPE t: TYPE.values()){
-            //coordinates of the TYPE
-            int [][] coord = coords.get(t);
-	       
-            //variables to store min & max
-            int minX=Integer.MAX_VALUE, minY=Integer.MAX_VALUE;
-            int maxX=Integer.MIN_VALUE, maxY=Integer.MIN_VALUE;
-	       
-            for(int block=0;block<coord.length;block++){
-                //get minimal values
-                if(coord[block][0]<minX){
-                    minX = coord[block][0];
-                }
-                if(coord[block][1]<minY){
-                    minY = coord[block][1];
-                }
-	           
-                //get maximal values
-                if(coord[block][0]>maxX){
-                    maxX = coord[block][0];
-                }
-                if(coord[block][1]>maxY){
-                    maxY = coord[block][1];
-                }
-            }
-            
-            //put data
-            min.put(t, new int[]{minX,minY});
-            max.put(t, new int[]{maxX,maxY});
-	       
-	   }
-	}
-	
 	/**
 	 * organize all data
 	 */
 	public static void addAllData(){
 	    addCoords();
 	    addColors();
-	    addMinMax();
 	}
 	
 	/**
@@ -216,19 +203,28 @@ public class Piece {
 	    
 	}
 	
+	/**
+	 * constructor
+	 * @param t type of the piece
+	 */
+	public Piece(TYPE t){
+	    setType(t);
+	}
+	
 	/**
 	 * method to set the type of piece
 	 * @param t
 	 */
 	public void setType(TYPE t){
-		int [][] table = coords.get(t).clone();
-		coord = table;
 		type = t;
-		color = colors.get(t);
+		rotation = 0;
+		coord = PieceCatalog.offsets[t.ordinal()][0];
+		color = PieceCatalog.colors[t.ordinal()];
 	}
 	
 	/**
 	 * return a copy of rotated coordinate
+	 * (used to build PieceCatalog, use PieceCatalog.offsets in the game)
 	 */
 	public static int[][] rotateLeft(TYPE t, int[][] coordinate){
 		//type that does not change after rotating
@@ -250,6 +246,7 @@ public class Piece {
 	
 	/**
 	 * return a copy of rotated coordinate
+	 * (used to build PieceCatalog, use PieceCatalog.offsets in the game)
 	 */
 	public static int[][] rotateRight(TYPE t, int[][] coordinate){
 		//type that does not change after rotating
@@ -302,10 +299,9 @@ public class Piece {
                 x+=1;
                 break;
             case ROTATE_LEFT:
-                coord = Piece.rotateLeft(type, coord);
-                break;
             case ROTATE_RIGHT:
-                coord = Piece.rotateRight(type, coord);
+                rotation = PieceCatalog.rotate(rotation, dir);
+                coord = PieceCatalog.offsets[type.ordinal()][rotation];
         }
 
     }
@@ -0,0 +1,129 @@
+package gygd.pentris.choi;
+
+import java.awt.Color;
+import java.util.Arrays;
+
+/**
+ * PieceCatalog class (part of Pentris)
+ * Compiled table of every TYPE in every rotation, built once from Piece.coords.
+ * All tables are indexed by [TYPE ordinal][rotation], so rotating or testing
+ * a piece is an array lookup and never allocates.
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class PieceCatalog {
+    //# of rotation states of every piece
+    public static final int ROTATIONS = 4;
+
+    //# of types (including NOTYPE)
+    protected static final int nTypes = TYPE.values().length;
+
+    //coordinates of each block (format==(x,y)) [type][rotation][block]
+    protected static final int[][][][] offsets = new int[nTypes][ROTATIONS][][];
+
+    //bounding box [type][rotation]
+    protected static final int[][] minX = new int[nTypes][ROTATIONS];
+    protected static final int[][] minY = new int[nTypes][ROTATIONS];
+    protected static final int[][] maxX = new int[nTypes][ROTATIONS];
+    protected static final int[][] maxY = new int[nTypes][ROTATIONS];
+
+    //occupancy of each row of the bounding box, bit 0 is column minX [type][rotation][y-minY]
+    protected static final long[][][] rowMasks = new long[nTypes][ROTATIONS][];
+
+    //blocks with no block of the same piece below them [type][rotation][block]
+    protected static final int[][][][] bottoms = new int[nTypes][ROTATIONS][][];
+
+    //first rotation with the same shape (the same blocks if the bounding boxes are aligned) [type][rotation]
+    protected static final int[][] canonical = new int[nTypes][ROTATIONS];
+
+    //color of each type [type]
+    protected static final Color[] colors = new Color[nTypes];
+
+    static {
+        if(Piece.coords==null){
+            Piece.addAllData();
+        }
+
+        for(TYPE t: TYPE.values()){
+            int type = t.ordinal();
+            int [][] coord = Piece.coords.get(t);
+            colors[type] = Piece.colors.get(t);
+
+            //rotation r+1 is rotation r turned right once
+            for(int r=0;r<ROTATIONS;r++){
+                offsets[type][r] = coord;
+                compile(type, r, coord);
+                coord = Piece.rotateRight(t, coord);
+            }
+
+            for(int r=0;r<ROTATIONS;r++){
+                int c = 0;
+                while(!Arrays.equals(rowMasks[type][c], rowMasks[type][r])){
+                    c++;
+                }
+                canonical[type][r] = c;
+            }
+        }
+    }
+
+    /**
+     * compute bounding box and row masks of one rotation state
+     */
+    private static void compile(int type, int rotation, int[][] coord){
+        int loX=Integer.MAX_VALUE, loY=Integer.MAX_VALUE;
+        int hiX=Integer.MIN_VALUE, hiY=Integer.MIN_VALUE;
+
+        for(int block=0;block<coord.length;block++){
+            loX = Math.min(loX, coord[block][0]);
+            loY = Math.min(loY, coord[block][1]);
+            hiX = Math.max(hiX, coord[block][0]);
+            hiY = Math.max(hiY, coord[block][1]);
+        }
+
+        long [] masks = new long[hiY-loY+1];
+        for(int block=0;block<coord.length;block++){
+            masks[coord[block][1]-loY] |= 1L<<(coord[block][0]-loX);
+        }
+
+        //blocks with no block of the same piece below them
+        int n = 0;
+        int [][] edges = new int[coord.length][];
+        for(int block=0;block<coord.length;block++){
+            int below = coord[block][1]-loY+1;
+            if(below==masks.length || (masks[below] & (1L<<(coord[block][0]-loX)))==0){
+                edges[n++] = coord[block];
+            }
+        }
+        bottoms[type][rotation] = Arrays.copyOf(edges, n);
+
+        minX[type][rotation] = loX;
+        minY[type][rotation] = loY;
+        maxX[type][rotation] = hiX;
+        maxY[type][rotation] = hiY;
+        rowMasks[type][rotation] = masks;
+    }
+
+    /**
+     * @return rotation state after rotating to a direction (other directions keep the rotation)
+     */
+    public static int rotate(int rotation, Direction dir){
+        if(dir==Direction.ROTATE_RIGHT){
+            return (rotation+1) & (ROTATIONS-1);
+        }else if(dir==Direction.ROTATE_LEFT){
+            return (rotation+ROTATIONS-1) & (ROTATIONS-1);
+        }
+        return rotation;
+    }
+}
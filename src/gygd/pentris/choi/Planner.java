@@ -0,0 +1,31 @@
+package gygd.pentris.choi;
+
+/**
+ * Planner interface (part of Pentris)
+ * Policy that can also write its moves instead of playing them,
+ * so that Pentris can send them through the command queue like keys.
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public interface Planner extends Policy {
+    /**
+     * find the moves of the active piece
+     * @param engine engine to play (not changed)
+     * @param moves receives Direction ordinals, ending with DROP
+     *        (a longer way is cut, and the piece drops from where it stops)
+     * @return # of moves, 0 if there is no active piece
+     */
+    int plan(GameEngine engine, int[] moves);
+}
@@ -0,0 +1,29 @@
+package gygd.pentris.choi;
+
+/**
+ * interface of a player that can play the game without Swing
+ * 
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public interface Policy {
+    /**
+     * move the active piece of an engine with step()
+     * the piece is dropped afterwards if it is still moving.
+     * A policy may be shared by several threads, so any randomness
+     * should come from the engine state (e.g. its seed and piece count).
+     * @param engine engine to play
+     */
+    void play(GameEngine engine);
+}
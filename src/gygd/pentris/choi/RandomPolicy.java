@@ -0,0 +1,45 @@
+package gygd.pentris.choi;
+
+/**
+ * policy that drops every piece with a random rotation and column
+ * (a baseline to compare other policies with)
+ * 
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class RandomPolicy implements Policy {
+
+    @Override
+    public void play(GameEngine engine) {
+        //random number that only depends on the game and the piece
+        long z = engine.getSeed()+engine.getPieces()*0x9E3779B97F4A7C15L;
+        z = (z^(z>>>33))*0xFF51AFD7ED558CCDL;
+        z = z^(z>>>33);
+
+        int rotations = (int) (z&3);
+        int shift = (int) ((z>>>2)%engine.getBoard().WIDTH)-engine.getBoard().WIDTH/2;
+
+        for(int i=0;i<rotations;i++){
+            engine.step(Direction.ROTATE_RIGHT);
+        }
+        Direction dir = shift<0 ? Direction.LEFT : Direction.RIGHT;
+        for(int i=Math.abs(shift);i>0;i--){
+            //stop at the wall
+            if(!engine.step(dir)){
+                break;
+            }
+        }
+        engine.step(Direction.DROP);
+    }
+}
@@ -0,0 +1,202 @@
+package gygd.pentris.choi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * ReplayAnalytics class (part of Pentris)
+ * Plays every game of an archive of replay files (written by ReplayWriter) on headless
+ * engines and counts where each type is placed, how many lines each lock clears and
+ * which types were in play at top-outs.
+ * Files are split between the threads of a work-stealing pool. Each file is mapped and
+ * decoded in place one event at a time, and each task keeps one engine and one
+ * ReplayStats, so the memory used does not grow with the size of the archive.
+ * Files that are not replay streams are skipped.
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class ReplayAnalytics {
+    //# of files a task reads without splitting
+    private static final int LEAF_FILES = 4;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * constructor
+     * @param pool pool to decode files on
+     */
+    public ReplayAnalytics(ForkJoinPool pool){
+        this.pool = pool;
+    }
+
+    /**
+     * analyze files
+     * @param files replay files
+     * @return histograms of every game of every file
+     */
+    public ReplayStats run(List<File> files){
+        return pool.invoke(new Scan(files.toArray(new File[files.size()]), 0, files.size()));
+    }
+
+    /**
+     * add every replay file under a path to a list
+     */
+    public static void collect(File path, List<File> out){
+        File[] children = path.listFiles();
+        if(children==null){
+            if(path.isFile()){
+                out.add(path);
+            }
+            return;
+        }
+        for(File child : children){
+            collect(child, out);
+        }
+    }
+
+    /**
+     * task to analyze a range of files
+     */
+    private static class Scan extends RecursiveTask<ReplayStats> {
+        private static final long serialVersionUID = 1L;
+
+        private final File[] files;
+        private final int from, to;
+
+        //engine reused while the mode and the size stay the same (leaf tasks only)
+        private GameEngine engine;
+
+        Scan(File[] files, int from, int to){
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected ReplayStats compute(){
+            if(to-from<=LEAF_FILES){
+                ReplayStats stats = new ReplayStats();
+                for(int i=from;i<to;i++){
+                    try{
+                        scan(files[i], stats);
+                    }catch(IOException e){
+                        System.err.println(files[i]+": "+e.getMessage());
+                    }
+                }
+                return stats;
+            }
+
+            int mid = (from+to)>>>1;
+            Scan left = new Scan(files, from, mid);
+            left.fork();
+            ReplayStats stats = new Scan(files, mid, to).compute();
+            stats.merge(left.join());
+            return stats;
+        }
+
+        /**
+         * play every game of a file
+         */
+        private void scan(File file, ReplayStats stats) throws IOException {
+            MappedByteBuffer buffer;
+            try(RandomAccessFile in = new RandomAccessFile(file, "r")){
+                if(in.length()<2 || in.readUnsignedByte()!='P' || in.readUnsignedByte()!='R'){
+                    return; //not a replay stream
+                }
+                if(in.length()>Integer.MAX_VALUE){
+                    throw new IOException("Replay larger than 2 GiB");
+                }
+                buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+            }
+            stats.files++;
+            stats.bytes += buffer.capacity();
+
+            ReplayReader reader = new ReplayReader(buffer);
+            while(reader.nextGame()){
+                if(engine==null || !engine.getMode().equals(reader.getMode())
+                        || engine.getBoard().HEIGHT!=reader.getHeight() || engine.getBoard().WIDTH!=reader.getWidth()){
+                    engine = reader.newEngine();
+                }else{
+                    reader.checkVersion();
+                    engine.reset(reader.getSeed());
+                }
+                play(reader, engine, stats);
+            }
+        }
+    }
+
+    /**
+     * play the rest of the current game of a reader and count it
+     */
+    static void play(ReplayReader reader, GameEngine engine, ReplayStats stats) throws IOException {
+        int type = 0;
+        for(int code=reader.next();code!=ReplayWriter.END;code=reader.next()){
+            stats.events++;
+            Piece piece = engine.getPiece();
+            if(piece==null){
+                continue;
+            }
+            type = piece.type.ordinal();
+            int rotation = piece.rotation, x = piece.x;
+            long pieces = engine.getPieces();
+            int lines = engine.getLines();
+            int next = engine.getNextType(0);
+
+            ReplayReader.apply(engine, code);
+
+            //moves that lock a piece do not change its x or rotation
+            if(engine.getPieces()!=pieces){
+                stats.addLock(type, x+PieceCatalog.minX[type][rotation], engine.getLines()-lines);
+                if(engine.isOver()){
+                    type = next; //the next piece had no room to spawn
+                }
+            }
+        }
+        stats.addGame(engine, engine.isOver(), type);
+    }
+
+    /**
+     * main method: analyze replay files and print the histograms
+     * @param args files or directories of replay files
+     */
+    public static void main(String[] args){
+        List<File> files = new ArrayList<File>();
+        for(String arg : args){
+            collect(new File(arg), files);
+        }
+        if(files.isEmpty()){
+            System.out.println("usage: ReplayAnalytics <file or directory>...");
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        long start = System.nanoTime();
+        ReplayStats stats = new ReplayAnalytics(pool).run(files);
+        double seconds = (System.nanoTime()-start)/1e9;
+        pool.shutdown();
+
+        System.out.println(stats);
+        System.out.println(String.format("%.2fs, %.1f MB/s, %.0f games/s, %.0f pieces/s, %.0f events/s",
+                seconds, stats.getBytes()/1e6/seconds, stats.getGames()/seconds,
+                stats.getPieces()/seconds, stats.getEvents()/seconds));
+    }
+}
@@ -0,0 +1,333 @@
+package gygd.pentris.choi;
+
+import java.awt.BorderLayout;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import javax.swing.JFrame;
+import javax.swing.SwingUtilities;
+
+/**
+ * ReplayPlayer class (part of Pentris)
+ * Opens a seekable replay written by KeyframeReplay and moves to any tick of it.
+ * A seek loads the last keyframe at or before the tick and plays the inputs after
+ * it on a headless engine as fast as possible (no gravity delay), so it costs at most
+ * one chunk of inputs whatever the length of the game. Nothing is painted until the
+ * destination is reached.
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class ReplayPlayer implements AutoCloseable {
+    private final RandomAccessFile file;
+    private final GameEngine engine;
+    private final int interval;
+
+    //tick, time and offset of every keyframe, end of the last chunk
+    private final long[] ticks, times, offsets;
+    private final long end;
+
+    //# of ticks and time of the whole game
+    private final long totalTicks, totalTime;
+
+    //chunk being played
+    private byte[] chunk = new byte[1<<12];
+
+    //time of the current position in milliseconds
+    private long time;
+
+    /**
+     * constructor
+     * @param path file written by KeyframeReplay
+     */
+    public ReplayPlayer(String path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        try{
+            if(file.readUnsignedByte()!='P' || file.readUnsignedByte()!='K'){
+                throw new IOException("Not a seekable replay: "+path);
+            }
+            int format = file.readUnsignedByte();
+            if(format!=KeyframeReplay.FORMAT){
+                throw new IOException("Unsupported replay format: "+format);
+            }
+            int version = file.readInt();
+            if(version!=GameEngine.VERSION){
+                throw new IOException("Replay of engine version "+version+" (this is "+GameEngine.VERSION+")");
+            }
+            int m = file.readUnsignedByte();
+            if(m>=ReplayWriter.MODES.length){
+                throw new IOException("Unknown mode: "+m);
+            }
+            String mode = ReplayWriter.MODES[m];
+            int height = file.readUnsignedByte();
+            int width = file.readUnsignedByte();
+            long seed = file.readLong();
+            interval = file.readInt();
+            engine = new GameEngine(height, width, mode, seed);
+
+            file.seek(file.length()-KeyframeReplay.FOOTER);
+            end = file.readLong();
+            if(file.readInt()!=KeyframeReplay.INDEX_MAGIC){
+                throw new IOException("Replay without an index: "+path);
+            }
+            file.seek(end);
+            int count = file.readInt();
+            ticks = new long[count];
+            times = new long[count];
+            offsets = new long[count];
+            for(int i=0;i<count;i++){
+                ticks[i] = file.readLong();
+                times[i] = file.readLong();
+                offsets[i] = file.readLong();
+            }
+            totalTicks = file.readLong();
+            totalTime = file.readLong();
+        }catch(IOException e){
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * move to a tick: the state right after that gravity tick, before any later input
+     * (the end of the game if it has fewer ticks)
+     * @param tick tick to reach
+     * @return engine at the tick (the same engine for every seek)
+     */
+    public GameEngine seek(long tick) throws IOException {
+        tick = Math.max(0, Math.min(tick, totalTicks));
+
+        //last keyframe at or before the tick
+        int lo = 0, hi = ticks.length-1;
+        while(lo<hi){
+            int mid = (lo+hi+1)>>>1;
+            if(ticks[mid]<=tick){
+                lo = mid;
+            }else{
+                hi = mid-1;
+            }
+        }
+
+        int length = (int) ((lo+1<offsets.length ? offsets[lo+1] : end)-offsets[lo]);
+        if(chunk.length<length){
+            chunk = new byte[length];
+        }
+        file.seek(offsets[lo]);
+        file.readFully(chunk, 0, length);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(chunk, 0, length));
+        engine.readState(in);
+        time = times[lo];
+
+        //fast-forward without pacing
+        while(engine.getTicks()<tick){
+            long event = KeyframeReplay.readVarint(in);
+            int code = (int) event & 0xF;
+            if(code==ReplayWriter.END){
+                break;
+            }
+            time += event>>>4;
+            ReplayReader.apply(engine, code);
+        }
+        return engine;
+    }
+
+    /**
+     * @return engine of the player
+     */
+    public GameEngine getEngine(){
+        return engine;
+    }
+
+    /**
+     * @return time of the current position in milliseconds
+     */
+    public long getTime(){
+        return time;
+    }
+
+    /**
+     * @return # of gravity ticks of the game
+     */
+    public long getTotalTicks(){
+        return totalTicks;
+    }
+
+    /**
+     * @return length of the game in milliseconds
+     */
+    public long getTotalTime(){
+        return totalTime;
+    }
+
+    /**
+     * @return # of ticks between keyframes
+     */
+    public int getInterval(){
+        return interval;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * main method: show a replay at a tick (LEFT/RIGHT: one tick, DOWN/UP: one keyframe),
+     * or without a file, check seeks against a replay played from the start
+     * @param args seekable replay file, tick (optional)
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length==0){
+            check();
+            return;
+        }
+        final ReplayPlayer player = new ReplayPlayer(args[0]);
+        final long start = args.length>1 ? Long.parseLong(args[1]) : 0;
+
+        SwingUtilities.invokeLater(new Runnable(){
+            public void run(){
+                GameEngine engine = player.getEngine();
+                final BoardModel model = engine.getBoard();
+                final Board board = new Board(model, 28);
+                final GameInfo info = new GameInfo();
+                final Snapshot snapshot = new Snapshot(model.HEIGHT, model.WIDTH);
+                final long[] at = {start};
+
+                final JFrame window = new JFrame("Pentris replay");
+                window.setLayout(new BorderLayout());
+                window.add(info, BorderLayout.NORTH);
+                window.add(board, BorderLayout.CENTER);
+                window.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+
+                //seek headless, then paint the destination once
+                final Runnable show = new Runnable(){
+                    public void run(){
+                        try{
+                            GameEngine e = player.seek(at[0]);
+                            String status = e.isOver() ? "Lost" : "Tick "+e.getTicks()+"/"+player.getTotalTicks();
+                            snapshot.capture(e, status, player.getTime(), 0);
+                            board.show(snapshot.frame);
+                            info.update(snapshot);
+                        }catch(IOException ex){
+                            ex.printStackTrace();
+                        }
+                    }
+                };
+                window.addKeyListener(new KeyAdapter(){
+                    public void keyPressed(KeyEvent e){
+                        switch(e.getKeyCode()){
+                            case KeyEvent.VK_LEFT:
+                                at[0]--;
+                                break;
+                            case KeyEvent.VK_RIGHT:
+                                at[0]++;
+                                break;
+                            case KeyEvent.VK_DOWN:
+                                at[0] -= player.getInterval();
+                                break;
+                            case KeyEvent.VK_UP:
+                                at[0] += player.getInterval();
+                                break;
+                            default:
+                                return;
+                        }
+                        at[0] = Math.max(0, Math.min(at[0], player.getTotalTicks()));
+                        show.run();
+                    }
+                });
+
+                window.pack();
+                window.setVisible(true);
+                show.run();
+            }
+        });
+    }
+
+    /**
+     * record a long bot game with gravity, convert it and compare seeks to
+     * the same game played from the start
+     */
+    private static void check() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ReplayWriter writer = new ReplayWriter(bytes, 1<<12, false);
+        GameEngine engine = new GameEngine(25, 12, Pentris.TETRIS, 1);
+        engine.setListener(writer);
+        engine.reset(7);
+        Bot bot = new Bot();
+        int[] moves = new int[1<<10];
+        Direction[] directions = Direction.values();
+        while(!engine.isOver() && engine.getPieces()<3000){
+            int n = bot.plan(engine, moves);
+            for(int i=0;i<n;i++){
+                engine.step(directions[moves[i]]);
+            }
+            //gravity pulls every new piece down a little before the bot plays it
+            engine.tick();
+            engine.tick();
+        }
+        writer.close();
+
+        File replay = File.createTempFile("pentris", ".pnk");
+        replay.deleteOnExit();
+        ReplayReader reader = new ReplayReader(new ByteArrayInputStream(bytes.toByteArray()));
+        reader.nextGame();
+        int keyframes = KeyframeReplay.convert(reader, replay.getPath(), 100);
+
+        ReplayPlayer player = new ReplayPlayer(replay.getPath());
+        long total = player.getTotalTicks();
+        Random random = new Random(1);
+        int seeks = 200, matched = 0;
+        long nanos = 0, linearNanos = 0;
+        for(int i=0;i<seeks;i++){
+            long tick = random.nextInt((int) total+1);
+
+            long t0 = System.nanoTime();
+            GameEngine seeked = player.seek(tick);
+            nanos += System.nanoTime()-t0;
+
+            //the same tick from the start
+            t0 = System.nanoTime();
+            reader = new ReplayReader(new ByteArrayInputStream(bytes.toByteArray()));
+            reader.nextGame();
+            GameEngine linear = reader.newEngine();
+            while(linear.getTicks()<tick){
+                int code = reader.next();
+                if(code==ReplayWriter.END){
+                    break;
+                }
+                ReplayReader.apply(linear, code);
+            }
+            linearNanos += System.nanoTime()-t0;
+
+            if(seeked.getTicks()==linear.getTicks() && seeked.getSteps()==linear.getSteps()
+                    && seeked.getScore()==linear.getScore() && seeked.getLevel()==linear.getLevel()
+                    && seeked.getBoard().getHash()==linear.getBoard().getHash()
+                    && seeked.getNextType(0)==linear.getNextType(0) && seeked.getGhostY()==linear.getGhostY()){
+                matched++;
+            }
+        }
+        player.close();
+        System.out.println(String.format("%d ticks, %d keyframes, %d bytes (%d as a stream), %d/%d seeks matched, "
+                + "%.1f us/seek, %.1f us from the start", total, keyframes, replay.length(), bytes.size(),
+                matched, seeks, nanos/1e3/seeks, linearNanos/1e3/seeks));
+    }
+}
@@ -0,0 +1,287 @@
+package gygd.pentris.choi;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * ReplayReader class (part of Pentris)
+ * Reads the games of a stream written by ReplayWriter and plays them again.
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class ReplayReader {
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    //source of the bytes (one of them is null)
+    private final InputStream in;
+    private final ByteBuffer buffer;
+
+    //header of the current game
+    private String mode;
+    private int version, height, width;
+    private long seed;
+
+    //true while the events of the current game are not all read
+    private boolean inGame;
+
+    //time of the last event in milliseconds since the start of the game
+    private long time;
+
+    /**
+     * constructor
+     * @param in stream written by ReplayWriter (buffered by the caller)
+     */
+    public ReplayReader(InputStream in){
+        this.in = in;
+        buffer = null;
+    }
+
+    /**
+     * constructor
+     * @param buffer bytes written by ReplayWriter (e.g. a mapped file), read from its position
+     */
+    public ReplayReader(ByteBuffer buffer){
+        in = null;
+        this.buffer = buffer;
+    }
+
+    /**
+     * skip the rest of the current game and read the header of the next one
+     * @return false at the end of the stream
+     */
+    public boolean nextGame() throws IOException {
+        while(inGame){
+            next();
+        }
+        int first = readByte();
+        if(first<0){
+            return false;
+        }
+        if(first!='P' || read()!='R'){
+            throw new IOException("Not a replay");
+        }
+        int format = read();
+        if(format!=ReplayWriter.FORMAT){
+            throw new IOException("Unsupported replay format: "+format);
+        }
+        version = (int) varint();
+        int m = read();
+        if(m>=ReplayWriter.MODES.length){
+            throw new IOException("Unknown mode: "+m);
+        }
+        mode = ReplayWriter.MODES[m];
+        height = (int) varint();
+        width = (int) varint();
+        seed = 0;
+        for(int i=0;i<8;i++){
+            seed = seed<<8 | read();
+        }
+        inGame = true;
+        time = 0;
+        return true;
+    }
+
+    /**
+     * read the next event of the current game
+     * @return Direction ordinal, ReplayWriter.TICK, or ReplayWriter.END after the last event
+     */
+    public int next() throws IOException {
+        if(!inGame){
+            return ReplayWriter.END;
+        }
+        long event = varint();
+        time += event>>>4;
+        int code = (int) event & 0xF;
+        if(code==ReplayWriter.END){
+            inGame = false;
+        }else if(code>ReplayWriter.TICK){
+            throw new IOException("Unknown event: "+code);
+        }
+        return code;
+    }
+
+    /**
+     * apply an event to an engine
+     * @param code result of next
+     */
+    public static void apply(GameEngine engine, int code){
+        if(code==ReplayWriter.TICK){
+            engine.tick();
+        }else if(code<ReplayWriter.TICK){
+            engine.step(DIRECTIONS[code]);
+        }
+    }
+
+    /**
+     * @return engine at the start of the current game
+     * @throws IOException if the game was recorded with other rules
+     */
+    public GameEngine newEngine() throws IOException {
+        checkVersion();
+        return new GameEngine(height, width, mode, seed);
+    }
+
+    /**
+     * @throws IOException if the current game was recorded with other rules
+     */
+    public void checkVersion() throws IOException {
+        if(version!=GameEngine.VERSION){
+            throw new IOException("Replay of engine version "+version+" (this is "+GameEngine.VERSION+")");
+        }
+    }
+
+    /**
+     * play the rest of the current game
+     * @param engine engine at the position of the next event (see newEngine)
+     */
+    public void play(GameEngine engine) throws IOException {
+        for(int code=next();code!=ReplayWriter.END;code=next()){
+            apply(engine, code);
+        }
+    }
+
+    /**
+     * @return next byte, or -1 at the end
+     */
+    private int readByte() throws IOException {
+        if(buffer!=null){
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+        return in.read();
+    }
+
+    private int read() throws IOException {
+        int b = readByte();
+        if(b<0){
+            throw new EOFException("Truncated replay");
+        }
+        return b;
+    }
+
+    private long varint() throws IOException {
+        long value = 0;
+        for(int shift=0;;shift+=7){
+            int b = read();
+            value |= (long) (b & 0x7F)<<shift;
+            if(b<0x80){
+                return value;
+            }
+        }
+    }
+
+    public String getMode(){
+        return mode;
+    }
+
+    /**
+     * @return engine version that recorded the current game
+     */
+    public int getVersion(){
+        return version;
+    }
+
+    public int getHeight(){
+        return height;
+    }
+
+    public int getWidth(){
+        return width;
+    }
+
+    public long getSeed(){
+        return seed;
+    }
+
+    /**
+     * @return time of the last event in milliseconds since the start of the game
+     */
+    public long getTime(){
+        return time;
+    }
+
+    /**
+     * main test method: print the games of a replay file, or without a file,
+     * record bot games with gravity and check that their replays match
+     * @param args replay file (optional)
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length>0){
+            ReplayReader reader = new ReplayReader(new BufferedInputStream(new FileInputStream(args[0])));
+            while(reader.nextGame()){
+                GameEngine engine = reader.newEngine();
+                reader.play(engine);
+                System.out.println(String.format("%s %dx%d seed %d: score %d, lines %d, pieces %d, %.1f s",
+                        reader.getMode(), reader.getHeight(), reader.getWidth(), reader.getSeed(),
+                        engine.getScore(), engine.getLines(), engine.getPieces(), reader.getTime()/1000.0));
+            }
+            return;
+        }
+
+        int games = 20;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ReplayWriter writer = new ReplayWriter(bytes, 1<<12, false);
+        GameEngine[] played = new GameEngine[games];
+        Bot bot = new Bot();
+        int[] moves = new int[1<<10];
+        long pieces = 0;
+
+        for(int g=0;g<games;g++){
+            GameEngine engine = new GameEngine(25, 12, modeOf(g), g);
+            engine.setListener(writer);
+            engine.reset(g*0x9E3779B97F4A7C15L);
+            while(!engine.isOver() && engine.getPieces()<500){
+                int n = bot.plan(engine, moves);
+                for(int i=0;i<n;i++){
+                    if(i%3==2){
+                        engine.tick();
+                    }
+                    engine.step(DIRECTIONS[moves[i]]);
+                }
+            }
+            engine.setListener(null);
+            played[g] = engine;
+            pieces += engine.getPieces();
+        }
+        writer.close();
+
+        ReplayReader reader = new ReplayReader(new ByteArrayInputStream(bytes.toByteArray()));
+        int g = 0, matched = 0;
+        while(reader.nextGame()){
+            GameEngine engine = reader.newEngine();
+            reader.play(engine);
+            GameEngine original = played[g++];
+            if(engine.getScore()==original.getScore() && engine.getPieces()==original.getPieces()
+                    && engine.getSteps()==original.getSteps() && engine.getTicks()==original.getTicks()
+                    && engine.getBoard().getHash()==original.getBoard().getHash()){
+                matched++;
+            }
+        }
+        System.out.println(String.format("%d/%d games matched, %d bytes, %.2f bytes/piece, %d waits",
+                matched, games, bytes.size(), (double) bytes.size()/pieces, writer.getWaits()));
+    }
+
+    /**
+     * @return mode of a test game
+     */
+    private static String modeOf(int game){
+        return ReplayWriter.MODES[game%ReplayWriter.MODES.length];
+    }
+}
@@ -0,0 +1,169 @@
+package gygd.pentris.choi;
+
+/**
+ * ReplayStats class (part of Pentris)
+ * Histograms of recorded games in primitive arrays of a fixed size, so a task can
+ * fill its own copy and copies are added together (merge) in any order.
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class ReplayStats {
+    //most lines one piece can clear, plus one
+    public static final int CLEARS = 6;
+
+    protected long files, bytes, games, pieces, events;
+
+    //# of locks by # of lines they cleared
+    protected final long[] clears = new long[CLEARS];
+
+    //# of locks by [type*MAX_WIDTH+leftmost column]
+    protected final long[] placements = new long[PieceCatalog.nTypes*BoardModel.MAX_WIDTH];
+
+    //# of games lost with each type in play (the piece that had no room to spawn,
+    //or the active piece if it was stopped above the board)
+    protected final long[] topOuts = new long[PieceCatalog.nTypes];
+
+    //# of games by length: bucket b holds games of 2^(b-1) to 2^b-1 pieces
+    protected final long[] lengths = new long[64];
+
+    /**
+     * count a lock
+     * @param type TYPE ordinal of the piece
+     * @param column leftmost column of the piece
+     * @param lines # of lines it cleared
+     */
+    public void addLock(int type, int column, int lines){
+        pieces++;
+        clears[Math.min(lines, CLEARS-1)]++;
+        placements[type*BoardModel.MAX_WIDTH+column]++;
+    }
+
+    /**
+     * count a finished game
+     * @param engine engine at the end of the game
+     * @param lost true if the game ended by a top-out
+     * @param type TYPE ordinal in play at the end (the type that failed to spawn
+     * if the game ended at a spawn)
+     */
+    public void addGame(GameEngine engine, boolean lost, int type){
+        games++;
+        lengths[64-Long.numberOfLeadingZeros(engine.getPieces())]++;
+        if(lost){
+            topOuts[type]++;
+        }
+    }
+
+    /**
+     * add the histograms of another object
+     */
+    public void merge(ReplayStats other){
+        files += other.files;
+        bytes += other.bytes;
+        games += other.games;
+        pieces += other.pieces;
+        events += other.events;
+        add(clears, other.clears);
+        add(placements, other.placements);
+        add(topOuts, other.topOuts);
+        add(lengths, other.lengths);
+    }
+
+    private static void add(long[] to, long[] from){
+        for(int i=0;i<to.length;i++){
+            to[i] += from[i];
+        }
+    }
+
+    public long getFiles(){
+        return files;
+    }
+
+    public long getBytes(){
+        return bytes;
+    }
+
+    public long getGames(){
+        return games;
+    }
+
+    public long getPieces(){
+        return pieces;
+    }
+
+    public long getEvents(){
+        return events;
+    }
+
+    /**
+     * @return # of locks that cleared a # of lines
+     */
+    public long getClears(int lines){
+        return clears[lines];
+    }
+
+    /**
+     * @return # of locks of a type with its leftmost block in a column
+     */
+    public long getPlacements(int type, int column){
+        return placements[type*BoardModel.MAX_WIDTH+column];
+    }
+
+    /**
+     * @return # of games lost with a type in play
+     */
+    public long getTopOuts(int type){
+        return topOuts[type];
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("files: %d, bytes: %d, games: %d, pieces: %d, events: %d%n",
+                files, bytes, games, pieces, events));
+
+        text.append("lines per lock:");
+        for(int i=0;i<CLEARS;i++){
+            text.append(String.format(" %d: %.4f%%", i, pieces==0 ? 0 : 100.0*clears[i]/pieces));
+        }
+
+        text.append(String.format("%ngames by pieces:"));
+        for(int b=0;b<lengths.length;b++){
+            if(lengths[b]>0){
+                text.append(String.format(" <%d: %d", 1L<<b, lengths[b]));
+            }
+        }
+
+        text.append(String.format("%ntype: top-outs, share of locks by leftmost column (%%)"));
+        for(int t=1;t<PieceCatalog.nTypes;t++){
+            long total = 0;
+            int last = 0;
+            for(int c=0;c<BoardModel.MAX_WIDTH;c++){
+                long n = placements[t*BoardModel.MAX_WIDTH+c];
+                total += n;
+                if(n>0){
+                    last = c;
+                }
+            }
+            if(total==0 && topOuts[t]==0){
+                continue;
+            }
+            text.append(String.format("%n%-6s %6d:", TYPE.of(t), topOuts[t]));
+            for(int c=0;c<=last;c++){
+                text.append(String.format(" %4.1f", 100.0*placements[t*BoardModel.MAX_WIDTH+c]/Math.max(total, 1)));
+            }
+        }
+        return text.toString();
+    }
+}
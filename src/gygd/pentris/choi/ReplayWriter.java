@@ -0,0 +1,261 @@
+package gygd.pentris.choi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ReplayWriter class (part of Pentris)
+ * Records the games of a GameEngine as a compact binary stream (read with ReplayReader).
+ * The engine is deterministic, so a game is its header and its inputs:
+ *   header: 'P' 'R', FORMAT, engine VERSION (varint), mode (byte), height, width (varints),
+ *           seed (8 bytes, big endian)
+ *   events: varint of (milliseconds since the previous event)<<4 | code, where the code
+ *           is a Direction ordinal, TICK, or END after the last event of the game
+ * A stream can hold any number of games one after another.
+ * The game thread only puts events into an EventRing; a background thread encodes them
+ * and writes them in large blocks. If the ring is full the game thread waits for it,
+ * since a replay with a missing input would not reproduce the game.
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class ReplayWriter implements GameListener, AutoCloseable {
+    //version of the stream format
+    public static final int FORMAT = 1;
+
+    //event codes other than Direction ordinals
+    public static final int TICK = 7;
+    public static final int END = 8;
+
+    //first event of a game in the ring (its payload is the mode and size, the next event is the seed)
+    private static final int START = 15;
+
+    //modes in the order of their header byte
+    static final String[] MODES = {Pentris.TETRIS, Pentris.PENTRIS, Pentris.BOTH};
+
+    private final OutputStream out;
+    private final EventRing ring;
+    private final boolean timed;
+    private final Thread writer;
+
+    //game thread only: start of the current game, # of waits for a full ring
+    private long startNanos;
+    private long waits;
+
+    private volatile boolean closed;
+    private volatile IOException error;
+
+    //writer thread only: encoded bytes not written yet
+    private final byte[] block = new byte[1<<16];
+    private int length;
+    private long written;
+    private boolean inGame;
+    private long lastTime;
+
+    /**
+     * constructor (starts the writer thread)
+     * @param out stream to write to (closed by close)
+     * @param capacity # of events that can wait for the writer thread
+     * @param timed true to record the time of the inputs, false to record 0 (headless games)
+     */
+    public ReplayWriter(OutputStream out, int capacity, boolean timed){
+        this.out = out;
+        this.timed = timed;
+        ring = new EventRing(capacity);
+        writer = new Thread(new Runnable(){
+            public void run(){
+                write();
+            }
+        }, "Pentris replay writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @return header byte of a mode
+     */
+    static int modeIndex(String mode){
+        for(int i=0;i<MODES.length;i++){
+            if(MODES[i].equals(mode)){
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Non-existent mode: "+mode);
+    }
+
+    @Override
+    public void gameStarted(GameEngine engine){
+        BoardModel board = engine.getBoard();
+        startNanos = System.nanoTime();
+        put((long) modeIndex(engine.getMode())<<40 | (long) board.HEIGHT<<24 | (long) board.WIDTH<<8 | START);
+        put(engine.getSeed());
+    }
+
+    @Override
+    public void moved(GameEngine engine, Direction dir){
+        put(time()<<8 | dir.ordinal());
+    }
+
+    @Override
+    public void ticked(GameEngine engine){
+        put(time()<<8 | TICK);
+    }
+
+    /**
+     * @return milliseconds since the start of the game (0 if not timed)
+     */
+    private long time(){
+        return timed ? (System.nanoTime()-startNanos)/1000000L : 0;
+    }
+
+    /**
+     * put an event into the ring, waiting while it is full
+     * (events put once the writer is closed are dropped, nothing would drain them)
+     */
+    private void put(long event){
+        while(!closed && !ring.offer(event)){
+            waits++;
+            Thread.yield();
+        }
+    }
+
+    /**
+     * loop of the writer thread: encode every event and write full blocks,
+     * and whatever is left whenever the ring is empty
+     */
+    private void write(){
+        long[] events = new long[1024];
+        boolean seed = false;
+        while(true){
+            int n = ring.drain(events);
+            if(n==0){
+                if(closed && ring.isEmpty()){
+                    break;
+                }
+                flush();
+                LockSupport.parkNanos(1000000L);
+                continue;
+            }
+
+            for(int i=0;i<n;i++){
+                long event = events[i];
+                if(length>block.length-32){
+                    flush();
+                }
+                if(seed){
+                    //8 bytes of seed after the header
+                    for(int shift=56;shift>=0;shift-=8){
+                        block[length++] = (byte) (event>>>shift);
+                    }
+                    seed = false;
+                }else if((event & 0xFF)==START){
+                    header(event);
+                    seed = true;
+                }else{
+                    long time = event>>>8;
+                    varint((time-lastTime)<<4 | (event & 0xFF));
+                    lastTime = time;
+                }
+            }
+        }
+        if(inGame){
+            varint(END);
+        }
+        flush();
+    }
+
+    /**
+     * end the current game and encode the header of the next one (without its seed)
+     */
+    private void header(long event){
+        if(inGame){
+            varint(END);
+        }
+        inGame = true;
+        lastTime = 0;
+
+        block[length++] = 'P';
+        block[length++] = 'R';
+        block[length++] = FORMAT;
+        varint(GameEngine.VERSION);
+        block[length++] = (byte) (event>>>40);
+        varint(event>>>24 & 0xFFFF);
+        varint(event>>>8 & 0xFFFF);
+    }
+
+    /**
+     * encode an unsigned varint (7 bits per byte, lowest first)
+     */
+    private void varint(long value){
+        while((value & ~0x7FL)!=0){
+            block[length++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        block[length++] = (byte) value;
+    }
+
+    /**
+     * write the encoded bytes (an error is kept for close, and later bytes are dropped)
+     */
+    private void flush(){
+        if(length==0){
+            return;
+        }
+        if(error==null){
+            try{
+                out.write(block, 0, length);
+                out.flush();
+                written += length;
+            }catch(IOException e){
+                error = e;
+            }
+        }
+        length = 0;
+    }
+
+    /**
+     * @return # of times the game thread waited for the writer thread
+     */
+    public long getWaits(){
+        return waits;
+    }
+
+    /**
+     * write every event, end the current game and close the stream; later events are dropped
+     * (detach it from the engine first with GameEngine.setListener(null) when the
+     * game thread is still running, or an event put while closing can be lost)
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(writer);
+        try{
+            writer.join();
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        out.close();
+        if(error!=null){
+            throw error;
+        }
+    }
+
+    /**
+     * @return # of bytes written (after close)
+     */
+    public long getWritten(){
+        return written;
+    }
+}
@@ -0,0 +1,56 @@
+package gygd.pentris.choi;
+
+/**
+ * Snapshot class (part of Pentris)
+ * What the screen shows after a tick: the board with the moving piece and
+ * its ghost, and the numbers of GameInfo. Snapshots are reused through
+ * a TripleBuffer, so taking one does not allocate.
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class Snapshot {
+    //types of every block in row order (Board.GHOST for the ghost piece)
+    protected final byte[] frame;
+
+    protected final GameStats stats = new GameStats();
+    protected long time; //time played in milliseconds
+    protected String status;
+    protected long sequence; //# of snapshots taken before this one
+
+    /**
+     * constructor
+     * @param height height of the board
+     * @param width width of the board
+     */
+    public Snapshot(int height, int width){
+        frame = new byte[height*width];
+        status = "Playing";
+    }
+
+    /**
+     * copy the state of an engine
+     * @param engine engine to copy
+     * @param status status to show
+     * @param time time played in milliseconds
+     * @param sequence # of snapshots taken before
+     */
+    public void capture(GameEngine engine, String status, long time, long sequence){
+        Board.compose(engine.getBoard(), engine.getPiece(), engine.getGhostY(), frame);
+        stats.copyFrom(engine.getStats());
+        this.time = time;
+        this.status = status;
+        this.sequence = sequence;
+    }
+}
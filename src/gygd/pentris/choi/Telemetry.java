@@ -0,0 +1,368 @@
+package gygd.pentris.choi;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Telemetry class (part of Pentris)
+ * Log of what happens in the games of a GameEngine (start, spawn, move, rotate, lock,
+ * clear, level-up, game over), one text line per event:
+ *   <epoch milliseconds> game=<n> <event> <key>=<value>...
+ * The game thread packs each event into a long and offers it to an EventRing, so it
+ * never allocates, locks or waits. If the ring is full (the disk is slow) the event
+ * is dropped and counted, and the count is written to the log.
+ * A background thread formats the events in batches and writes them to rolling files
+ * <prefix>.0.log, <prefix>.1.log, ... of about fileBytes each, keeping the last files.
+ *   event: time (28 bits, ms since the start of the log) | payload (32 bits) | code (4 bits)
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class Telemetry implements AutoCloseable {
+    //event codes
+    public static final int START = 0, SPAWN = 1, MOVE = 2, ROTATE = 3, LOCK = 4, CLEAR = 5, LEVEL = 6, OVER = 7;
+    private static final String[] NAMES = {"start", "spawn", "move", "rotate", "lock", "clear", "level", "over"};
+
+    //bits of the time of an event
+    private static final long TIME_MASK = (1L<<28)-1;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+    private static final TYPE[] TYPES = TYPE.values();
+
+    private final EventRing ring;
+    private final String prefix;
+    private final long fileBytes;
+    private final int files;
+    private final Thread writer;
+
+    //start of the log
+    private final long startNanos, startMillis;
+
+    //events the game thread could not add, or added after close (only written by the game thread)
+    private volatile long dropped;
+
+    private volatile boolean closed;
+    private volatile IOException error;
+
+    //writer thread only: current file, its index and size, formatted text
+    private OutputStream out;
+    private int fileIndex = -1;
+    private long fileWritten, written;
+    private final StringBuilder line = new StringBuilder(128);
+    private final byte[] block = new byte[1<<16];
+    private int length;
+    private long game, elapsed, reportedDrops;
+
+    /**
+     * constructor (starts the writer thread)
+     * @param prefix path of the files without ".<index>.log"
+     * @param capacity # of events that can wait for the writer thread
+     * @param fileBytes size of a file before the next one is started
+     * @param files # of files kept (older files are deleted)
+     */
+    public Telemetry(String prefix, int capacity, long fileBytes, int files){
+        this.prefix = prefix;
+        this.fileBytes = fileBytes;
+        this.files = Math.max(files, 1);
+        ring = new EventRing(capacity);
+        startNanos = System.nanoTime();
+        startMillis = System.currentTimeMillis();
+        writer = new Thread(new Runnable(){
+            public void run(){
+                write();
+            }
+        }, "Pentris telemetry writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * a game was started (with its first piece spawned)
+     */
+    public void started(GameEngine engine){
+        BoardModel board = engine.getBoard();
+        put(START, ReplayWriter.modeIndex(engine.getMode())<<16 | board.HEIGHT<<8 | board.WIDTH);
+    }
+
+    /**
+     * a piece was spawned
+     * @param type TYPE ordinal
+     */
+    public void spawned(int type){
+        put(SPAWN, type);
+    }
+
+    /**
+     * a move of the player is applied (before the lock, clear, etc. it causes)
+     * @param dir direction
+     */
+    public void moved(Direction dir){
+        put(dir==Direction.ROTATE_LEFT || dir==Direction.ROTATE_RIGHT ? ROTATE : MOVE, dir.ordinal());
+    }
+
+    /**
+     * a piece was put on the board
+     */
+    public void locked(Piece piece){
+        put(LOCK, piece.type.ordinal() | piece.rotation<<8 | (piece.x & 0xFF)<<16 | (piece.y & 0xFF)<<24);
+    }
+
+    /**
+     * lines were removed
+     */
+    public void cleared(int lines){
+        put(CLEAR, lines);
+    }
+
+    /**
+     * the level went up
+     */
+    public void levelUp(int level){
+        put(LEVEL, level);
+    }
+
+    /**
+     * the game ended
+     */
+    public void gameOver(GameEngine engine){
+        put(OVER, engine.getScore());
+    }
+
+    /**
+     * add an event to the ring, or count it if the ring is full or the log is closed
+     * (game thread only)
+     */
+    private void put(int code, int payload){
+        long time = (System.nanoTime()-startNanos)/1000000L;
+        if(closed || !ring.offer(time<<36 | (payload & 0xFFFFFFFFL)<<4 | code)){
+            dropped = dropped+1; //only the game thread writes it
+        }
+    }
+
+    /**
+     * loop of the writer thread: format batches of events, and write them
+     * whenever the ring is empty or the block is full
+     */
+    private void write(){
+        long[] events = new long[1024];
+        while(true){
+            int n = ring.drain(events);
+            if(n==0){
+                if(closed && ring.isEmpty()){
+                    break;
+                }
+                reportDrops();
+                flush();
+                LockSupport.parkNanos(10000000L);
+                continue;
+            }
+            for(int i=0;i<n;i++){
+                format(events[i]);
+            }
+        }
+        reportDrops();
+        flush();
+        if(out!=null){
+            try{
+                out.close();
+            }catch(IOException e){
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * format an event into the block
+     */
+    private void format(long event){
+        int code = (int) event & 0xF;
+        int payload = (int) (event>>>4);
+        //the time wraps every 2^28 ms, and events are in order
+        elapsed += ((event>>>36)-elapsed) & TIME_MASK;
+        if(code==START){
+            game++;
+        }
+
+        line.setLength(0);
+        line.append(startMillis+elapsed).append(" game=").append(game).append(' ').append(NAMES[code]);
+        switch(code){
+            case START:
+                line.append(" mode=").append(ReplayWriter.MODES[payload>>>16].replace(' ', '_'))
+                        .append(" height=").append(payload>>>8 & 0xFF).append(" width=").append(payload & 0xFF);
+                break;
+            case SPAWN:
+                line.append(" type=").append(TYPES[payload]);
+                break;
+            case MOVE:
+            case ROTATE:
+                line.append(" dir=").append(DIRECTIONS[payload]);
+                break;
+            case LOCK:
+                line.append(" type=").append(TYPES[payload & 0xFF]).append(" rotation=").append(payload>>>8 & 0xFF)
+                        .append(" x=").append((byte) (payload>>>16)).append(" y=").append((byte) (payload>>>24));
+                break;
+            case CLEAR:
+                line.append(" lines=").append(payload);
+                break;
+            case LEVEL:
+                line.append(" level=").append(payload);
+                break;
+            case OVER:
+                line.append(" score=").append(payload);
+                break;
+            default:
+                break;
+        }
+        append();
+    }
+
+    /**
+     * write a line with the # of dropped events if it changed
+     */
+    private void reportDrops(){
+        long drops = dropped;
+        if(drops!=reportedDrops){
+            reportedDrops = drops;
+            line.setLength(0);
+            line.append(System.currentTimeMillis()).append(" dropped=").append(drops);
+            append();
+        }
+    }
+
+    /**
+     * copy the line (ASCII) and a newline into the block
+     */
+    private void append(){
+        if(length+line.length()+1>block.length){
+            flush();
+        }
+        for(int i=0;i<line.length();i++){
+            block[length++] = (byte) line.charAt(i);
+        }
+        block[length++] = '\n';
+    }
+
+    /**
+     * write the block to the current file, starting the next file when it is full
+     * (an error is kept for close, and later events are dropped)
+     */
+    private void flush(){
+        if(length==0){
+            return;
+        }
+        if(error==null){
+            try{
+                if(out==null || fileWritten>=fileBytes){
+                    roll();
+                }
+                out.write(block, 0, length);
+                out.flush();
+                fileWritten += length;
+                written += length;
+            }catch(IOException e){
+                error = e;
+            }
+        }
+        length = 0;
+    }
+
+    /**
+     * close the current file, open the next one and delete the oldest kept one
+     */
+    private void roll() throws IOException {
+        if(out!=null){
+            out.close();
+        }
+        fileIndex++;
+        out = new FileOutputStream(getFile(fileIndex));
+        fileWritten = 0;
+        if(fileIndex>=files){
+            getFile(fileIndex-files).delete();
+        }
+    }
+
+    /**
+     * @return file with an index
+     */
+    public File getFile(int index){
+        return new File(prefix+"."+index+".log");
+    }
+
+    /**
+     * @return # of events dropped because the ring was full
+     */
+    public long getDropped(){
+        return dropped;
+    }
+
+    /**
+     * @return # of bytes written to the files
+     */
+    public long getWritten(){
+        return written;
+    }
+
+    /**
+     * write every event and close the current file; later events are counted as dropped
+     * (detach it from the engine first with GameEngine.setTelemetry(null) when the
+     * game thread is still running, or an event put while closing can be lost)
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(writer);
+        try{
+            writer.join();
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        if(error!=null){
+            throw error;
+        }
+    }
+
+    /**
+     * main method: log random games as fast as possible and print the cost per event
+     * @param args prefix of the files (optional), # of seconds (optional)
+     */
+    public static void main(String[] args) throws IOException {
+        String prefix = args.length>0 ? args[0] : new File(System.getProperty("java.io.tmpdir"), "pentris-telemetry").getPath();
+        long seconds = args.length>1 ? Long.parseLong(args[1]) : 2;
+        Telemetry telemetry = new Telemetry(prefix, 1<<16, 1<<22, 4);
+        GameEngine engine = new GameEngine(25, 12, Pentris.PENTRIS, 1);
+        engine.setTelemetry(telemetry);
+        java.util.Random rand = new java.util.Random(1);
+        Direction[] moves = {Direction.LEFT, Direction.RIGHT, Direction.ROTATE_RIGHT};
+
+        long games = 0, steps = 0;
+        long start = System.nanoTime();
+        while(System.nanoTime()-start<seconds*1000000000L){
+            engine.reset(games++);
+            while(!engine.isOver()){
+                for(int i=rand.nextInt(8);i>0;i--){
+                    engine.step(moves[rand.nextInt(moves.length)]);
+                }
+                engine.step(Direction.DROP);
+            }
+            steps += engine.getSteps();
+        }
+        long nanos = System.nanoTime()-start;
+        telemetry.close();
+        System.out.println(String.format("%d games, %d moves in %.2fs, %.0f ns/move, %d bytes written, %d events dropped",
+                games, steps, nanos/1e9, (double) nanos/steps, telemetry.getWritten(), telemetry.getDropped()));
+    }
+}
@@ -0,0 +1,201 @@
+package gygd.pentris.choi;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TranspositionTable class (part of Pentris)
+ * Fixed-size cache of search results keyed by the hash of a board and a TYPE,
+ * shared by every thread of a search without locks.
+ * Each entry is two longs, the data and the key xor the data, so an entry
+ * torn by two threads writing at once does not match its key and reads as a miss.
+ * Entries live in buckets of two: a new result replaces the entry with the
+ * same key, or else an entry of an older search, or else the shallower entry.
+ * Scores are kept as floats.
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class TranspositionTable {
+    //result of probe when there is no entry (the score bits of a stored entry are never all set)
+    public static final long MISS = -1L;
+
+    //no best placement
+    public static final int NONE = 0xFFFF;
+
+    //random key of each type
+    private static final long[] TYPE_KEYS = new long[PieceCatalog.nTypes];
+
+    static {
+        long z = 0x2545F4914F6CDD1DL;
+        for(int t=0;t<TYPE_KEYS.length;t++){
+            long k = (z += 0x9E3779B97F4A7C15L);
+            k = (k^(k>>>30))*0xBF58476D1CE4E5B9L;
+            k = (k^(k>>>27))*0x94D049BB133111EBL;
+            TYPE_KEYS[t] = k^(k>>>31);
+        }
+    }
+
+    //(key^data, data) of every entry, two entries per bucket
+    private final AtomicLongArray entries;
+    private final int bucketMask;
+
+    //generation of the current search (older entries are replaced first)
+    private volatile int generation;
+
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+
+    /**
+     * constructor
+     * @param capacity # of entries (rounded up to a power of 2, 16 bytes each)
+     */
+    public TranspositionTable(int capacity){
+        int buckets = Integer.highestOneBit(Math.max(capacity/2-1, 1))<<1;
+        bucketMask = buckets-1;
+        entries = new AtomicLongArray(buckets*4);
+    }
+
+    /**
+     * @param hash hash of a board (callers may fold more of the position into it)
+     * @param type ordinal of a TYPE
+     * @return key of the board with a piece of that type
+     */
+    public static long key(long hash, int type){
+        return Long.rotateLeft(hash, 17)^TYPE_KEYS[type];
+    }
+
+    /**
+     * start a new search, so that the entries of older searches are replaced first
+     */
+    public void newSearch(){
+        generation = (generation+1) & 0xFF;
+    }
+
+    /**
+     * find the data stored for a key
+     * @return data (read with score, depth and best), or MISS
+     */
+    public long probe(long key){
+        probes.increment();
+        int i = ((int) key & bucketMask)<<2;
+        for(int slot=i;slot<i+4;slot+=2){
+            long data = entries.get(slot+1);
+            if((entries.get(slot)^data)==key){
+                hits.increment();
+                return data;
+            }
+        }
+        return MISS;
+    }
+
+    /**
+     * store a result
+     * @param key key of the position
+     * @param score score of the position
+     * @param depth # of pieces searched below the position (0 to 255)
+     * @param best index of the best placement (0 to 65534), or NONE
+     */
+    public void store(long key, double score, int depth, int best){
+        long data = (Float.floatToIntBits((float) score) & 0xFFFFFFFFL)
+                | (long) (depth & 0xFF)<<32 | (long) (best & 0xFFFF)<<40 | (long) generation<<56;
+        int i = ((int) key & bucketMask)<<2;
+
+        //same key, or else an older search, or else the shallower entry
+        int victim = -1;
+        for(int slot=i;slot<i+4;slot+=2){
+            long old = entries.get(slot+1);
+            if((entries.get(slot)^old)==key){
+                victim = slot;
+                break;
+            }
+        }
+        if(victim<0){
+            long first = entries.get(i+1), second = entries.get(i+3);
+            if((int) (first>>>56)!=generation){
+                victim = i;
+            }else if((int) (second>>>56)!=generation){
+                victim = i+2;
+            }else{
+                victim = depth(first)<depth(second) ? i : i+2;
+            }
+        }
+
+        entries.lazySet(victim, key^data);
+        entries.lazySet(victim+1, data);
+        stores.increment();
+    }
+
+    /**
+     * @return score of the data of an entry
+     */
+    public static double score(long data){
+        return Float.intBitsToFloat((int) data);
+    }
+
+    /**
+     * @return depth of the data of an entry
+     */
+    public static int depth(long data){
+        return (int) (data>>>32) & 0xFF;
+    }
+
+    /**
+     * @return best placement of the data of an entry, or NONE
+     */
+    public static int best(long data){
+        return (int) (data>>>40) & 0xFFFF;
+    }
+
+    /**
+     * @return # of entries
+     */
+    public int getCapacity(){
+        return entries.length()/2;
+    }
+
+    public long getProbes(){
+        return probes.sum();
+    }
+
+    public long getHits(){
+        return hits.sum();
+    }
+
+    public long getStores(){
+        return stores.sum();
+    }
+
+    /**
+     * @return hits per probe (0 if nothing was probed)
+     */
+    public double getHitRate(){
+        long p = probes.sum();
+        return p==0 ? 0 : (double) hits.sum()/p;
+    }
+
+    /**
+     * forget every entry and reset the counters
+     * (must not be called while other threads use the table)
+     */
+    public void clear(){
+        for(int i=0;i<entries.length();i++){
+            entries.set(i, 0L);
+        }
+        probes.reset();
+        hits.reset();
+        stores.reset();
+    }
+}
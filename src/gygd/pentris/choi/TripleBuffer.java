@@ -0,0 +1,71 @@
+package gygd.pentris.choi;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TripleBuffer class (part of Pentris)
+ * Lock-free exchange of the latest state between one writer and one reader.
+ * The writer fills its back buffer and publishes it, the reader takes the most
+ * recently published buffer. Neither side ever waits for the other, and the
+ * three buffers are reused forever.
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class TripleBuffer<T> {
+    //set in middle when it holds a buffer the reader has not taken yet
+    private static final int FRESH = 4;
+    private static final int INDEX = 3;
+
+    private final Object[] buffers;
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0; //only used by the writer
+    private int front = 2; //only used by the reader
+
+    /**
+     * constructor
+     * @param a first buffer
+     * @param b second buffer
+     * @param c third buffer
+     */
+    public TripleBuffer(T a, T b, T c){
+        buffers = new Object[]{a, b, c};
+    }
+
+    /**
+     * @return buffer the writer may fill (writer only)
+     */
+    @SuppressWarnings("unchecked")
+    public T back(){
+        return (T) buffers[back];
+    }
+
+    /**
+     * make the back buffer the latest one (writer only)
+     */
+    public void publish(){
+        back = middle.getAndSet(back|FRESH) & INDEX;
+    }
+
+    /**
+     * @return most recently published buffer, kept until the next call (reader only)
+     */
+    @SuppressWarnings("unchecked")
+    public T latest(){
+        if((middle.get() & FRESH)!=0){
+            front = middle.getAndSet(front) & INDEX;
+        }
+        return (T) buffers[front];
+    }
+}
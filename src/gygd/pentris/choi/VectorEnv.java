@@ -0,0 +1,571 @@
+package gygd.pentris.choi;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * VectorEnv class (part of Pentris)
+ * N games stepped together for training agents, with the rules of GameEngine.
+ * Every game is stored in primitive arrays shared by all games (struct of arrays):
+ * a row mask and a column mask per row and column, and the type, rotation and
+ * position of the active piece, so nothing is allocated after construction.
+ * A game that ends is reset at once with the next seed of its stream.
+ *
+ * An action is either a placement or a key press:
+ *   rotation*WIDTH+column (0 to PLACEMENTS-1): turn the spawned piece to a rotation,
+ *   move its leftmost block to a column and drop it (the moves stop at the first
+ *   one that is blocked, and the piece drops from there);
+ *   PLACEMENTS+Direction ordinal: one GameEngine.step with that direction.
+ * The reward of a step is the score it made (GameStats.addLines).
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class VectorEnv {
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    //# of games, size of the boards
+    protected final int N, HEIGHT, WIDTH;
+
+    //# of placement actions (raw presses follow them)
+    public final int PLACEMENTS;
+
+    //# of actions
+    public final int ACTIONS;
+
+    //piece distribution
+    private final int firstType, nTypes;
+
+    //an episode is cut after this many steps
+    private final long maxSteps;
+
+    //mask of a completely filled row
+    private final long fullMask;
+
+    //occupancy of each row [game*HEIGHT+row] and each column [game*WIDTH+col]
+    private final long[] rows, cols;
+
+    //active piece of each game
+    private final int[] type, rotation, x, y;
+
+    //upcoming types [game*PREVIEW+i] (a ring starting at nextIndex)
+    private final int[] upcoming, nextIndex;
+
+    //random generator of the pieces (SplitMix64) and of the seeds of the next episodes
+    private final long[] randomState, seedState;
+
+    //seed of the current episode of each game
+    private final long[] seeds;
+
+    //counters of the current episode
+    private final int[] score, lines;
+    private final long[] steps, pieces;
+
+    //score of the last finished episode, # of finished episodes
+    private final int[] lastScore;
+    private final LongAdder episodes = new LongAdder();
+
+    /**
+     * constructor
+     * @param n # of games
+     * @param height height of the boards
+     * @param width width of the boards
+     * @param mode Pentris.TETRIS, Pentris.PENTRIS or Pentris.BOTH
+     * @param maxSteps an episode ends after this many steps
+     * @param seed seed of every game (game i starts with the seeds of stream i)
+     */
+    public VectorEnv(int n, int height, int width, String mode, long maxSteps, long seed){
+        if(width<1 || width>BoardModel.MAX_WIDTH || height<1 || height>BoardModel.MAX_HEIGHT){
+            throw new IllegalArgumentException("Unsupported board size: "+height+"x"+width);
+        }
+        N = n; HEIGHT = height; WIDTH = width;
+        PLACEMENTS = PieceCatalog.ROTATIONS*WIDTH;
+        ACTIONS = PLACEMENTS+DIRECTIONS.length;
+        firstType = TYPE.firstOrdinal(mode);
+        nTypes = TYPE.count(mode);
+        this.maxSteps = maxSteps;
+        fullMask = WIDTH==BoardModel.MAX_WIDTH ? -1L : (1L<<WIDTH)-1;
+
+        rows = new long[N*HEIGHT];
+        cols = new long[N*WIDTH];
+        type = new int[N];
+        rotation = new int[N];
+        x = new int[N];
+        y = new int[N];
+        upcoming = new int[N*GameEngine.PREVIEW];
+        nextIndex = new int[N];
+        randomState = new long[N];
+        seedState = new long[N];
+        seeds = new long[N];
+        score = new int[N];
+        lines = new int[N];
+        steps = new long[N];
+        pieces = new long[N];
+        lastScore = new int[N];
+
+        for(int i=0;i<N;i++){
+            seedState[i] = GameEngine.mix(seed+i*0x9E3779B97F4A7C15L);
+            reset(i, nextSeed(i));
+        }
+    }
+
+    /**
+     * apply an action to every game
+     * @param actions action of each game
+     * @param rewards receives the reward of each game
+     * @param dones receives true for each game that ended (and was reset)
+     */
+    public void step(int[] actions, float[] rewards, boolean[] dones){
+        step(actions, rewards, dones, 0, N);
+    }
+
+    /**
+     * apply an action to a range of games (ranges can be stepped by different threads)
+     * @param from first game
+     * @param to last game (exclusive)
+     */
+    public void step(int[] actions, float[] rewards, boolean[] dones, int from, int to){
+        for(int i=from;i<to;i++){
+            int before = score[i];
+            boolean over = apply(i, actions[i]);
+            steps[i]++;
+            rewards[i] = score[i]-before;
+
+            if(over || steps[i]>=maxSteps){
+                lastScore[i] = score[i];
+                dones[i] = true;
+                reset(i, nextSeed(i));
+                episodes.increment();
+            }else{
+                dones[i] = false;
+            }
+        }
+    }
+
+    /**
+     * apply one action to one game
+     * @return true if the game ended
+     */
+    private boolean apply(int i, int action){
+        if(action>=PLACEMENTS){
+            return press(i, DIRECTIONS[action-PLACEMENTS]);
+        }
+
+        //turn (left for the last rotation), move sideways while possible, drop
+        int t = type[i];
+        int target = action/WIDTH;
+        int targetX = action%WIDTH-PieceCatalog.minX[t][target];
+        Direction turn = target==PieceCatalog.ROTATIONS-1 ? Direction.ROTATE_LEFT : Direction.ROTATE_RIGHT;
+
+        while(rotation[i]!=target && safe(i, turn)){
+            move(i, turn);
+        }
+        if(rotation[i]==target){
+            Direction side = targetX<x[i] ? Direction.LEFT : Direction.RIGHT;
+            while(x[i]!=targetX && safe(i, side)){
+                move(i, side);
+            }
+        }
+        return press(i, Direction.DROP);
+    }
+
+    /**
+     * one GameEngine.step
+     * @return true if the game ended
+     */
+    private boolean press(int i, Direction dir){
+        if(dir==Direction.DROP){
+            y[i] += dropDistance(i);
+            //piece cannot move down anymore (this also checks the end of the game)
+            int collision = collision(i, Direction.DOWN);
+            if(GameEngine.isTopOut(collision, type[i], rotation[i], y[i])){
+                return true;
+            }
+            return lock(i);
+        }
+
+        int collision = collision(i, dir);
+        if(collision==BoardModel.FREE){
+            move(i, dir);
+            return false;
+        }
+        if(GameEngine.isTopOut(collision, type[i], rotation[i], y[i])){
+            return true;
+        }
+
+        //piece stops if it cannot move down
+        return dir==Direction.DOWN && lock(i);
+    }
+
+    /**
+     * @return true if the active piece can move to a direction
+     */
+    private boolean safe(int i, Direction dir){
+        return collision(i, dir)==BoardModel.FREE;
+    }
+
+    /**
+     * move the active piece (the move must be FREE)
+     */
+    private void move(int i, Direction dir){
+        switch(dir){
+            case DOWN:
+                y[i]++;
+                break;
+            case UP:
+                y[i]--;
+                break;
+            case LEFT:
+                x[i]--;
+                break;
+            case RIGHT:
+                x[i]++;
+                break;
+            default:
+                rotation[i] = PieceCatalog.rotate(rotation[i], dir);
+                break;
+        }
+    }
+
+    /**
+     * test the active piece after a move, as BoardModel.collision
+     */
+    private int collision(int i, Direction dir){
+        int t = type[i], r = PieceCatalog.rotate(rotation[i], dir);
+        int px = x[i]+(dir==Direction.LEFT ? -1 : dir==Direction.RIGHT ? 1 : 0);
+        int py = y[i]+(dir==Direction.DOWN ? 1 : dir==Direction.UP ? -1 : 0);
+        return collision(i, t, r, px, py);
+    }
+
+    /**
+     * check whether a piece fits in a game
+     */
+    private int collision(int i, int t, int r, int px, int py){
+        return BoardModel.collision(rows, i*HEIGHT, HEIGHT, WIDTH, t, r, px, py);
+    }
+
+    /**
+     * @return # of rows the active piece can fall
+     */
+    private int dropDistance(int i){
+        return BoardModel.dropDistance(cols, i*WIDTH, HEIGHT, type[i], rotation[i], x[i], y[i]);
+    }
+
+    /**
+     * put the active piece on the board, remove completed lines and spawn the next piece
+     * @return true if the next piece has no room (the game ended)
+     */
+    private boolean lock(int i){
+        int t = type[i], r = rotation[i];
+        int [][] coord = PieceCatalog.offsets[t][r];
+        for(int block=0;block<coord.length;block++){
+            int row = y[i]+coord[block][1];
+            int col = x[i]+coord[block][0];
+            if(row>=0 && row<HEIGHT){
+                rows[i*HEIGHT+row] |= 1L<<col;
+                cols[i*WIDTH+col] |= 1L<<row;
+            }
+        }
+        pieces[i]++;
+
+        int removed = clearFullRows(i, y[i]+PieceCatalog.minY[t][r], y[i]+PieceCatalog.maxY[t][r]);
+        lines[i] += removed;
+        score[i] += GameStats.points(removed);
+        return !spawn(i);
+    }
+
+    /**
+     * remove the completed rows between two rows, as BoardModel.clearFullRows
+     * @return # of removed rows
+     */
+    private int clearFullRows(int i, int top, int bottom){
+        int base = i*HEIGHT;
+        top = Math.max(top, 0);
+        bottom = Math.min(bottom, HEIGHT-1);
+
+        int removed = 0;
+        int to = bottom;
+        for(int row=bottom;row>=0;row--){
+            long mask = rows[base+row];
+            if(row>=top && mask==fullMask){
+                //take the row out of every column (rows above it already moved down)
+                BoardModel.removeFromColumns(cols, i*WIDTH, WIDTH, row+removed);
+                removed++;
+            }else if(removed>0){
+                rows[base+to] = mask;
+                to--;
+            }else{
+                to--;
+            }
+        }
+        for(int row=0;row<removed;row++){
+            rows[base+row] = 0;
+        }
+        return removed;
+    }
+
+    /**
+     * place the next piece in the middle at the top
+     * @return false if there is no room for it
+     */
+    private boolean spawn(int i){
+        int slot = i*GameEngine.PREVIEW+nextIndex[i];
+        type[i] = upcoming[slot];
+        upcoming[slot] = nextType(i);
+        nextIndex[i] = (nextIndex[i]+1)%GameEngine.PREVIEW;
+
+        rotation[i] = 0;
+        x[i] = GameEngine.spawnX(WIDTH);
+        y[i] = GameEngine.spawnY(type[i]);
+        return collision(i, type[i], 0, x[i], y[i])==BoardModel.FREE;
+    }
+
+    /**
+     * start a new episode, as GameEngine.reset
+     */
+    private void reset(int i, long seed){
+        seeds[i] = seed;
+        randomState[i] = seed;
+        for(int k=0;k<GameEngine.PREVIEW;k++){
+            upcoming[i*GameEngine.PREVIEW+k] = nextType(i);
+        }
+        nextIndex[i] = 0;
+        Arrays.fill(rows, i*HEIGHT, (i+1)*HEIGHT, 0L);
+        Arrays.fill(cols, i*WIDTH, (i+1)*WIDTH, 0L);
+        score[i] = 0;
+        lines[i] = 0;
+        steps[i] = 0;
+        pieces[i] = 0;
+        spawn(i);
+    }
+
+    /**
+     * @return ordinal of a random type of the mode, as GameEngine.nextType
+     */
+    private int nextType(int i){
+        return GameEngine.randomType(randomState[i] += 0x9E3779B97F4A7C15L, firstType, nTypes);
+    }
+
+    /**
+     * @return seed of the next episode of a game
+     */
+    private long nextSeed(int i){
+        return GameEngine.mix(seedState[i] += 0x9E3779B97F4A7C15L);
+    }
+
+    /**
+     * @return occupancy of every row of every game [game*HEIGHT+row] (bit c is column c, read only)
+     */
+    public long[] getRows(){
+        return rows;
+    }
+
+    /**
+     * @return TYPE ordinal of the active piece of every game (read only)
+     */
+    public int[] getTypes(){
+        return type;
+    }
+
+    /**
+     * @return rotation of the active piece of every game (read only)
+     */
+    public int[] getRotations(){
+        return rotation;
+    }
+
+    /**
+     * @return x of the active piece of every game (read only)
+     */
+    public int[] getX(){
+        return x;
+    }
+
+    /**
+     * @return y of the active piece of every game (read only)
+     */
+    public int[] getY(){
+        return y;
+    }
+
+    /**
+     * @return ordinal of an upcoming type of a game (0 for the next piece, up to PREVIEW-1)
+     */
+    public int getNextType(int game, int i){
+        return upcoming[game*GameEngine.PREVIEW+(nextIndex[game]+i)%GameEngine.PREVIEW];
+    }
+
+    /**
+     * @return seed of the current episode of a game (GameEngine.reset with it plays the same pieces)
+     */
+    public long getSeed(int game){
+        return seeds[game];
+    }
+
+    /**
+     * @return score of the current episode of a game
+     */
+    public int getScore(int game){
+        return score[game];
+    }
+
+    /**
+     * @return lines of the current episode of a game
+     */
+    public int getLines(int game){
+        return lines[game];
+    }
+
+    /**
+     * @return pieces of the current episode of a game
+     */
+    public long getPieces(int game){
+        return pieces[game];
+    }
+
+    /**
+     * @return score of the last finished episode of a game
+     */
+    public int getLastScore(int game){
+        return lastScore[game];
+    }
+
+    /**
+     * @return # of finished episodes
+     */
+    public long getEpisodes(){
+        return episodes.sum();
+    }
+
+    /**
+     * main test method: step random placements and print the speed
+     * (without arguments, check that the games play as GameEngine games)
+     * @param args # of games, mode (optional)
+     */
+    public static void main(String[] args){
+        if(args.length==0){
+            check();
+            return;
+        }
+        int n = Integer.parseInt(args[0]);
+        String mode = args.length>1 ? args[1] : Pentris.PENTRIS;
+        VectorEnv env = new VectorEnv(n, 25, 12, mode, 10000, 1);
+
+        int[] actions = new int[n];
+        float[] rewards = new float[n];
+        boolean[] dones = new boolean[n];
+        long z = 1, total = 0;
+        double reward = 0;
+
+        long start = System.nanoTime();
+        while(System.nanoTime()-start<3000000000L){
+            for(int i=0;i<n;i++){
+                z = GameEngine.mix(z+0x9E3779B97F4A7C15L);
+                actions[i] = (int) ((z>>>33)%env.PLACEMENTS);
+            }
+            env.step(actions, rewards, dones);
+            for(int i=0;i<n;i++){
+                reward += rewards[i];
+            }
+            total += n;
+        }
+        double seconds = (System.nanoTime()-start)/1e9;
+        System.out.println(String.format("%d steps, %d episodes, %.3f reward/step, %.0f steps/s",
+                total, env.getEpisodes(), reward/total, total/seconds));
+    }
+
+    /**
+     * step random placements and presses, play the same actions on a GameEngine per game,
+     * and compare the boards, pieces and counters after every step
+     */
+    private static void check(){
+        int n = 16, height = 20, width = 10;
+        for(String mode : new String[]{Pentris.TETRIS, Pentris.PENTRIS, Pentris.BOTH}){
+            VectorEnv env = new VectorEnv(n, height, width, mode, Long.MAX_VALUE, 7);
+            GameEngine[] engines = new GameEngine[n];
+            for(int i=0;i<n;i++){
+                engines[i] = new GameEngine(height, width, mode, env.getSeed(i));
+            }
+
+            int[] actions = new int[n];
+            float[] rewards = new float[n];
+            boolean[] dones = new boolean[n];
+            java.util.Random rand = new java.util.Random(1);
+            long mismatches = 0, episodes = 0;
+
+            for(int s=0;s<20000;s++){
+                for(int i=0;i<n;i++){
+                    actions[i] = rand.nextInt(4)==0 ? env.PLACEMENTS+rand.nextInt(DIRECTIONS.length) : rand.nextInt(env.PLACEMENTS);
+                }
+                env.step(actions, rewards, dones);
+
+                for(int i=0;i<n;i++){
+                    GameEngine engine = engines[i];
+                    int before = engine.getScore();
+                    play(engine, actions[i], width);
+                    boolean same = rewards[i]==engine.getScore()-before;
+                    if(dones[i]){
+                        same &= engine.isOver() && env.getLastScore(i)==engine.getScore();
+                        engine.reset(env.getSeed(i));
+                        episodes++;
+                    }
+                    Piece piece = engine.getPiece();
+                    same &= !engine.isOver() && piece!=null && piece.type.ordinal()==env.type[i]
+                            && piece.rotation==env.rotation[i] && piece.x==env.x[i] && piece.y==env.y[i]
+                            && engine.getScore()==env.score[i] && engine.getLines()==env.lines[i]
+                            && engine.getPieces()==env.pieces[i];
+                    for(int r=0;r<height;r++){
+                        same &= engine.getBoard().getRow(r)==env.rows[i*height+r];
+                    }
+                    for(int k=0;k<GameEngine.PREVIEW;k++){
+                        same &= engine.getNextType(k)==env.getNextType(i, k);
+                    }
+                    if(!same){
+                        mismatches++;
+                        engine.reset(env.getSeed(i)); //only count the first step that differs
+                        env.reset(i, env.getSeed(i));
+                    }
+                }
+            }
+            System.out.println(String.format("%s: %d steps, %d episodes, %d mismatches", mode, 20000L*n, episodes, mismatches));
+        }
+    }
+
+    /**
+     * apply an action to a GameEngine as apply does
+     */
+    private static void play(GameEngine engine, int action, int width){
+        int placements = PieceCatalog.ROTATIONS*width;
+        if(action>=placements){
+            engine.step(DIRECTIONS[action-placements]);
+            return;
+        }
+
+        Piece piece = engine.getPiece();
+        int target = action/width;
+        int targetX = action%width-PieceCatalog.minX[piece.type.ordinal()][target];
+        Direction turn = target==PieceCatalog.ROTATIONS-1 ? Direction.ROTATE_LEFT : Direction.ROTATE_RIGHT;
+
+        while(piece.rotation!=target && engine.isSafeToMove(turn)){
+            engine.step(turn);
+        }
+        if(piece.rotation==target){
+            Direction side = targetX<piece.x ? Direction.LEFT : Direction.RIGHT;
+            while(piece.x!=targetX && engine.isSafeToMove(side)){
+                engine.step(side);
+            }
+        }
+        engine.step(Direction.DROP);
+    }
+}
@@ -0,0 +1,449 @@
+package gygd.pentris.choi;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * WeightTuner class (part of Pentris)
+ * Tunes the weights of WeightedHeuristic with an evolution strategy:
+ * every generation samples a population of weight vectors around a mean,
+ * plays headless games with each of them, and moves the mean and the spread
+ * of each weight to the best quarter of the population.
+ * Every candidate of a generation plays the same games (same seeds), in rounds.
+ * After each round, a candidate whose score is clearly below the best quarter
+ * stops playing (racing), so most of the games go to the good candidates.
+ * Candidates and their games run together on a ForkJoinPool, and the state
+ * is written to a checkpoint file after every generation so a run can resume.
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class WeightTuner {
+    //# of rounds the games of a generation are split into
+    private static final int ROUNDS = 4;
+
+    //a candidate stops if its score plus Z standard errors is below the elite score minus Z standard errors
+    private static final double Z = 2;
+
+    //share of the old spread kept by each generation, and the smallest spread
+    private static final double SMOOTHING = 0.3;
+    private static final double MIN_SIGMA = 0.01;
+
+    //size of the board of Pentris
+    private static final int HEIGHT = 25, WIDTH = 12;
+
+    private final String mode;
+    private final int lookahead;
+    private final int population, elites;
+    private final int games;
+    private final long maxPieces;
+    private final long seed;
+    private final ForkJoinPool pool;
+    private final Path checkpoint;
+
+    //state of the search (saved in the checkpoint)
+    private int generation;
+    private double[] mean, sigma;
+    private double[] best;
+    private double bestScore = Double.NEGATIVE_INFINITY;
+
+    //# of games played and skipped by racing in the last generation
+    private long played, skipped;
+
+    /**
+     * constructor
+     * @param mode Pentris.TETRIS, Pentris.PENTRIS or Pentris.BOTH
+     * @param lookahead lookahead of the bots (see Bot)
+     * @param population # of candidates per generation (at least 4)
+     * @param games # of games per candidate and generation (a multiple of 4)
+     * @param maxPieces a game stops after this many pieces
+     * @param seed seed of the whole run
+     * @param pool pool to play on
+     * @param checkpoint file of the state, read at the start if it exists (null for none)
+     */
+    public WeightTuner(String mode, int lookahead, int population, int games, long maxPieces, long seed,
+            ForkJoinPool pool, Path checkpoint){
+        if(population<4 || games<ROUNDS || games%ROUNDS!=0){
+            throw new IllegalArgumentException("Unsupported population or games: "+population+", "+games);
+        }
+        this.mode = mode;
+        this.lookahead = lookahead;
+        this.population = population;
+        this.elites = population/4;
+        this.games = games;
+        this.maxPieces = maxPieces;
+        this.seed = seed;
+        this.pool = pool;
+        this.checkpoint = checkpoint;
+        TYPE.count(mode); //fail early on a wrong mode
+
+        //start around the default weights
+        mean = new WeightedHeuristic().getWeights();
+        sigma = new double[mean.length];
+        Arrays.fill(sigma, 0.2);
+        best = mean.clone();
+    }
+
+    /**
+     * run generations (after the ones of the checkpoint)
+     * @param generations last generation to run
+     * @throws IOException if the checkpoint cannot be read or written
+     */
+    public void run(int generations) throws IOException{
+        if(checkpoint!=null && Files.exists(checkpoint)){
+            load();
+            System.out.println("resumed at generation "+generation+" from "+checkpoint);
+        }
+
+        while(generation<generations){
+            long start = System.nanoTime();
+            step();
+            generation++;
+            if(checkpoint!=null){
+                save();
+            }
+            System.out.println(String.format("generation %d: best %.1f, mean %s, sigma %s, %d games (%d skipped), %.1fs",
+                    generation, bestScore, format(mean), format(sigma), played, skipped,
+                    (System.nanoTime()-start)/1e9));
+        }
+    }
+
+    /**
+     * sample, evaluate and select one generation
+     */
+    private void step(){
+        //the same generation always samples the same candidates and plays the same games
+        SplittableRandom rand = new SplittableRandom(seed+generation*0x9E3779B97F4A7C15L);
+        long gameSeed = rand.nextLong();
+
+        double[][] candidates = new double[population][];
+        for(int c=0;c<population;c++){
+            candidates[c] = new double[mean.length];
+            for(int i=0;i<mean.length;i++){
+                candidates[c][i] = mean[i]+sigma[i]*gaussian(rand);
+            }
+            normalize(candidates[c]);
+        }
+
+        final double[] scores = evaluate(candidates, gameSeed);
+
+        //best quarter by score
+        Integer[] order = new Integer[population];
+        for(int c=0;c<population;c++){
+            order[c] = c;
+        }
+        Arrays.sort(order, new Comparator<Integer>(){
+            public int compare(Integer a, Integer b){
+                return Double.compare(scores[b], scores[a]);
+            }
+        });
+
+        if(scores[order[0]]>bestScore){
+            bestScore = scores[order[0]];
+            best = candidates[order[0]].clone();
+        }
+
+        for(int i=0;i<mean.length;i++){
+            double m = 0, v = 0;
+            for(int e=0;e<elites;e++){
+                m += candidates[order[e]][i];
+            }
+            m /= elites;
+            for(int e=0;e<elites;e++){
+                double d = candidates[order[e]][i]-m;
+                v += d*d;
+            }
+            v /= elites;
+
+            mean[i] = m;
+            sigma[i] = Math.max(Math.sqrt((1-SMOOTHING)*v+SMOOTHING*sigma[i]*sigma[i]), MIN_SIGMA);
+        }
+        normalize(mean);
+    }
+
+    /**
+     * play the games of every candidate in rounds, stopping the candidates that are clearly worse
+     * @return mean score of each candidate (over the games it played)
+     */
+    private double[] evaluate(double[][] candidates, long gameSeed){
+        int n = candidates.length;
+        BatchResult[] results = new BatchResult[n];
+        boolean[] racing = new boolean[n];
+        Arrays.fill(racing, true);
+        played = 0;
+        skipped = 0;
+
+        for(int round=0;round<ROUNDS;round++){
+            //every candidate still racing plays the same games
+            long roundSeed = gameSeed+round;
+            Candidate[] tasks = new Candidate[n];
+            for(int c=0;c<n;c++){
+                if(racing[c]){
+                    tasks[c] = new Candidate(candidates[c], games/ROUNDS, roundSeed);
+                }
+            }
+            pool.invoke(new Round(tasks));
+
+            for(int c=0;c<n;c++){
+                if(tasks[c]==null){
+                    skipped += games/ROUNDS;
+                    continue;
+                }
+                BatchResult r = tasks[c].getRawResult();
+                if(results[c]==null){
+                    results[c] = r;
+                }else{
+                    results[c].merge(r);
+                }
+                played += r.getGames();
+            }
+
+            //elite score: the lower bound of the candidate ranked last among the elites
+            double[] upper = new double[n];
+            double[] lower = new double[n];
+            int alive = 0;
+            for(int c=0;c<n;c++){
+                if(racing[c]){
+                    double error = Z*results[c].getScoreDeviation()/Math.sqrt(results[c].getGames());
+                    upper[c] = results[c].getMeanScore()+error;
+                    lower[c] = results[c].getMeanScore()-error;
+                    alive++;
+                }
+            }
+            double[] ranked = new double[alive];
+            for(int c=0, i=0;c<n;c++){
+                if(racing[c]){
+                    ranked[i++] = results[c].getMeanScore();
+                }
+            }
+            Arrays.sort(ranked);
+            double eliteMean = ranked[alive-elites];
+            double eliteLower = Double.POSITIVE_INFINITY;
+            for(int c=0;c<n;c++){
+                if(racing[c] && results[c].getMeanScore()==eliteMean){
+                    eliteLower = Math.min(eliteLower, lower[c]);
+                }
+            }
+            for(int c=0;c<n;c++){
+                if(racing[c] && upper[c]<eliteLower){
+                    racing[c] = false;
+                }
+            }
+        }
+
+        //a candidate that stopped early ranks below every candidate that played every game
+        double[] scores = new double[n];
+        double full = 0;
+        for(int c=0;c<n;c++){
+            if(racing[c]){
+                full = Math.max(full, results[c].getMeanScore());
+            }
+        }
+        for(int c=0;c<n;c++){
+            scores[c] = racing[c] ? results[c].getMeanScore() : Math.min(results[c].getMeanScore(), full)-full-1;
+        }
+        return scores;
+    }
+
+    /**
+     * games of one candidate in one round
+     */
+    private class Candidate extends RecursiveTask<BatchResult> {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] weights;
+        private final int games;
+        private final long seed;
+
+        Candidate(double[] weights, int games, long seed){
+            this.weights = weights;
+            this.games = games;
+            this.seed = seed;
+        }
+
+        @Override
+        protected BatchResult compute(){
+            Bot bot = new Bot(new WeightedHeuristic(weights), lookahead);
+            return new BatchSimulator(HEIGHT, WIDTH, mode, bot, maxPieces, pool).run(games, seed);
+        }
+    }
+
+    /**
+     * every candidate of a round at once
+     */
+    private static class Round extends RecursiveTask<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final Candidate[] tasks;
+
+        Round(Candidate[] tasks){
+            this.tasks = tasks;
+        }
+
+        @Override
+        protected Void compute(){
+            for(Candidate task: tasks){
+                if(task!=null){
+                    task.fork();
+                }
+            }
+            for(Candidate task: tasks){
+                if(task!=null){
+                    task.join();
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return standard normal number (Box-Muller)
+     */
+    private static double gaussian(SplittableRandom rand){
+        double u = 1-rand.nextDouble();
+        return Math.sqrt(-2*Math.log(u))*Math.cos(2*Math.PI*rand.nextDouble());
+    }
+
+    /**
+     * scale a vector to length 1 (the heuristic only compares boards, so the length does not matter)
+     */
+    private static void normalize(double[] v){
+        double length = 0;
+        for(double x: v){
+            length += x*x;
+        }
+        length = Math.sqrt(length);
+        if(length>0){
+            for(int i=0;i<v.length;i++){
+                v[i] /= length;
+            }
+        }
+    }
+
+    /**
+     * write the state to the checkpoint (through a temporary file, so a crash leaves the old one)
+     */
+    private void save() throws IOException{
+        Path temporary = checkpoint.resolveSibling(checkpoint.getFileName()+".tmp");
+        PrintWriter out = new PrintWriter(Files.newBufferedWriter(temporary, StandardCharsets.UTF_8));
+        try{
+            out.println("generation "+generation);
+            out.println("mean "+join(mean));
+            out.println("sigma "+join(sigma));
+            out.println("best "+join(best));
+            out.println("bestScore "+bestScore);
+        }finally{
+            out.close();
+        }
+        if(out.checkError()){
+            throw new IOException("Cannot write "+temporary);
+        }
+        Files.move(temporary, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * read the state from the checkpoint
+     */
+    private void load() throws IOException{
+        BufferedReader in = Files.newBufferedReader(checkpoint, StandardCharsets.UTF_8);
+        try{
+            String line;
+            while((line = in.readLine())!=null){
+                String[] words = line.trim().split(" ");
+                if(words[0].equals("generation")){
+                    generation = Integer.parseInt(words[1]);
+                }else if(words[0].equals("mean")){
+                    mean = parse(words);
+                }else if(words[0].equals("sigma")){
+                    sigma = parse(words);
+                }else if(words[0].equals("best")){
+                    best = parse(words);
+                }else if(words[0].equals("bestScore")){
+                    bestScore = Double.parseDouble(words[1]);
+                }
+            }
+        }finally{
+            in.close();
+        }
+        if(mean.length!=WeightedHeuristic.FEATURES || sigma.length!=mean.length || best.length!=mean.length){
+            throw new IOException("Corrupted checkpoint: "+checkpoint);
+        }
+    }
+
+    private static String join(double[] v){
+        StringBuilder s = new StringBuilder();
+        for(int i=0;i<v.length;i++){
+            s.append(i==0 ? "" : " ").append(v[i]);
+        }
+        return s.toString();
+    }
+
+    private static double[] parse(String[] words){
+        double[] v = new double[words.length-1];
+        for(int i=0;i<v.length;i++){
+            v[i] = Double.parseDouble(words[i+1]);
+        }
+        return v;
+    }
+
+    private static String format(double[] v){
+        StringBuilder s = new StringBuilder("[");
+        for(int i=0;i<v.length;i++){
+            s.append(i==0 ? "" : ", ").append(String.format("%.3f", v[i]));
+        }
+        return s.append(']').toString();
+    }
+
+    /**
+     * @return best weights found so far
+     */
+    public double[] getBest(){
+        return best.clone();
+    }
+
+    public double getBestScore(){
+        return bestScore;
+    }
+
+    /**
+     * main method: tune the weights and print the best ones
+     * @param args checkpoint file, # of generations, population, games, mode, lookahead, max pieces (all optional)
+     */
+    public static void main(String[] args) throws IOException{
+        Path checkpoint = Paths.get(args.length>0 ? args[0] : "pentris-weights.txt");
+        int generations = args.length>1 ? Integer.parseInt(args[1]) : 20;
+        int population = args.length>2 ? Integer.parseInt(args[2]) : 32;
+        int games = args.length>3 ? Integer.parseInt(args[3]) : 32;
+        String mode = args.length>4 ? args[4] : Pentris.PENTRIS;
+        int lookahead = args.length>5 ? Integer.parseInt(args[5]) : 0;
+        long maxPieces = args.length>6 ? Long.parseLong(args[6]) : 500;
+
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        WeightTuner tuner = new WeightTuner(mode, lookahead, population, games, maxPieces, 1, pool, checkpoint);
+        tuner.run(generations);
+        System.out.println("best weights "+format(tuner.getBest())+", score "+tuner.getBestScore());
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,82 @@
+package gygd.pentris.choi;
+
+/**
+ * WeightedHeuristic class (part of Pentris)
+ * Weighted sum of aggregate height, removed lines, holes and bumpiness.
+ * Every feature is computed from the column masks of the board.
+ *
+ * Copyright (C) 2010 Wonjohn Choi
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ * @author Wonjohn Choi
+ *
+ */
+public class WeightedHeuristic implements Heuristic {
+    //index of each feature in the weights
+    public static final int HEIGHT = 0; //sum of the heights of the columns
+    public static final int LINES = 1; //removed lines
+    public static final int HOLES = 2; //empty blocks under the surface of their column
+    public static final int BUMPINESS = 3; //sum of the height differences of neighbouring columns
+    public static final int FEATURES = 4;
+
+    //weights of a well-known tuning for Tetris
+    private static final double[] DEFAULT = {-0.510066, 0.760666, -0.35663, -0.184483};
+
+    private final double[] weights;
+
+    /**
+     * constructor with the default weights
+     */
+    public WeightedHeuristic(){
+        this(DEFAULT);
+    }
+
+    /**
+     * constructor
+     * @param weights weight of each feature (indexed by HEIGHT, LINES, HOLES and BUMPINESS)
+     */
+    public WeightedHeuristic(double[] weights){
+        if(weights.length!=FEATURES){
+            throw new IllegalArgumentException("Expected "+FEATURES+" weights: "+weights.length);
+        }
+        this.weights = weights.clone();
+    }
+
+    /**
+     * @return copy of the weights
+     */
+    public double[] getWeights(){
+        return weights.clone();
+    }
+
+    @Override
+    public double evaluate(BoardModel board, int lines){
+        int height = 0, holes = 0, bumpiness = 0;
+        int previous = -1;
+
+        for(int col=0;col<board.WIDTH;col++){
+            long mask = board.getColumn(col);
+            int surface = board.getSurface(col);
+            int h = board.HEIGHT-surface;
+
+            //every empty row below the surface is a hole
+            holes += h-Long.bitCount(mask);
+            height += h;
+            if(previous>=0){
+                bumpiness += Math.abs(h-previous);
+            }
+            previous = h;
+        }
+
+        return weights[HEIGHT]*height+weights[LINES]*lines
+                +weights[HOLES]*holes+weights[BUMPINESS]*bumpiness;
+    }
+}